@@ -0,0 +1,771 @@
+package net.pizey.csv;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The keys and records of an OFF_HEAP or ARENA table, held as bytes: for OFF_HEAP in direct buffers outside the heap,
+ * so that the heap the table takes does not grow with its rows; for ARENA in buffers on the heap, so that a value
+ * takes the eight bytes of its address and four of its length beside its own bytes, rather than a String and a
+ * CsvField.
+ * <p>
+ * Each key has a row, holding the address of the key, its hash and the record's line number. The rows are found
+ * through an open addressed hash table, as in {@link CsvKeyIndex}. The values of each column are held by row, as the
+ * addresses of their UTF-8 bytes in an arena of blocks, which are only ever appended to. No CsvRecord or CsvField is
+ * kept: the map returned by {@link #asMap(CsvTable)} gives a {@link CsvColumnarRecord} view of a row, which decodes
+ * a value each time it is read and writes any change straight back. Values are compared as bytes, without decoding,
+ * when both are held in stores.
+ * <p>
+ * A removed key leaves its row unused, so that views of other rows stay valid. A value which is replaced or removed
+ * leaves its bytes in the arena, which is rewritten without them once they make up half of it.
+ * <p>
+ * A copy shares the rows, the hash table and the values in chunks until either writes to a chunk, when it copies just
+ * that chunk; the arena's full blocks are never written, so are shared outright.
+ * <p>
+ * Direct buffers count against the JVM's limit on direct memory, -XX:MaxDirectMemorySize, which by default is the
+ * maximum heap size, so must be raised for a table larger than the heap. Once {@link #close()}d the store may not be
+ * used, and its buffers are released to be freed when they are collected.
+ */
+final class CsvByteStore extends CsvKeyList implements CsvCellStore, Closeable {
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final int INITIAL_BLOCK_SIZE = 4096;
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  /** The bytes of a row: the address of its key, the key's hash and the line number. */
+  private static final int ROW_BYTES = 16;
+  private static final int KEY = 0;
+  private static final int HASH = 8;
+  private static final int LINE_NO = 12;
+
+  /** The line number of a row whose key has been added but not yet its record. */
+  private static final int NO_RECORD = Integer.MIN_VALUE;
+
+  /** A slot which has never been used, ending a probe. */
+  private static final int FREE = 0;
+  /** A slot whose key has been removed, passed over by a probe. */
+  private static final int DELETED = -1;
+
+  /** The address of an empty value, which takes no bytes. */
+  private static final long EMPTY = -1;
+  /** The address of a value removed from a row which would otherwise read as empty. */
+  private static final long REMOVED = -2;
+
+  /** Whether the buffers are direct, outside the heap. */
+  private boolean direct;
+
+  /** The row of each key, in the order they were added, with a zero key address where one has been removed. */
+  private Chunks rows;
+  /** The number of rows used, including those of removed keys. */
+  private int end;
+  private int size;
+
+  /** One more than the row of the key hashed to each slot, or FREE or DELETED. */
+  private Chunks slots;
+  /** The number of slots, a power of two. */
+  private int slotCount;
+  private int deletedSlots;
+
+  private HashMap<String, Integer> nameToColumn;
+  private ArrayList<CsvColumn> columns;
+  /** The address of the value of each column, by row, zero where the row has none. */
+  private ArrayList<Chunks> values;
+  /** The number of rows present when each column was added, which read as empty for it. */
+  private int[] emptyRows;
+
+  /** The blocks of the arena; an address is one more than the index of its block, shifted, then the offset. */
+  private ArrayList<ByteBuffer> blocks;
+  /** The block being appended to, or null if a new one is to be started. */
+  private ByteBuffer block;
+  private long arenaBytes;
+  private long garbageBytes;
+
+  /**
+   * @param direct
+   *          whether to hold the bytes in direct buffers outside the heap, rather than on it
+   */
+  CsvByteStore(boolean direct) {
+    super();
+    this.direct = direct;
+    nameToColumn = new HashMap<String, Integer>();
+    columns = new ArrayList<CsvColumn>();
+    emptyRows = new int[0];
+    removeAllKeys();
+  }
+
+  /**
+   * A copy, sharing the buffers of the other store until either writes to them.
+   */
+  CsvByteStore(CsvByteStore other) {
+    super();
+    synchronized (other) {
+      other.checkOpen();
+      direct = other.direct;
+      rows = new Chunks(other.rows);
+      end = other.end;
+      size = other.size;
+      slots = new Chunks(other.slots);
+      slotCount = other.slotCount;
+      deletedSlots = other.deletedSlots;
+      nameToColumn = new HashMap<String, Integer>(other.nameToColumn);
+      columns = new ArrayList<CsvColumn>(other.columns);
+      values = new ArrayList<Chunks>();
+      for (Chunks column : other.values)
+        values.add(new Chunks(column));
+      emptyRows = other.emptyRows.clone();
+      blocks = new ArrayList<ByteBuffer>(other.blocks);
+      // Neither appends to a block the other can see
+      block = null;
+      other.block = null;
+      arenaBytes = other.arenaBytes;
+      garbageBytes = other.garbageBytes;
+    }
+  }
+
+  private void checkOpen() {
+    if (rows == null)
+      throw new IllegalStateException("Store has been closed");
+  }
+
+  private static ByteBuffer allocate(int capacity, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  private static int hash(String key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return the address at which the bytes were appended to the arena
+   */
+  private long write(byte[] bytes) {
+    int length = bytes.length + 4;
+    if (block == null || block.remaining() < length) {
+      int blockSize = block == null ? INITIAL_BLOCK_SIZE : Math.min(block.capacity() * 2, BLOCK_SIZE);
+      block = allocate(Math.max(blockSize, length), direct);
+      blocks.add(block);
+    }
+    long address = ((long) blocks.size() << 32) | block.position();
+    block.putInt(bytes.length);
+    block.put(bytes);
+    arenaBytes += length;
+    return address;
+  }
+
+  private static ByteBuffer blockOf(ArrayList<ByteBuffer> blocks, long address) {
+    return blocks.get((int) (address >>> 32) - 1);
+  }
+
+  private static byte[] bytesAt(ArrayList<ByteBuffer> blocks, long address) {
+    ByteBuffer bytes = blockOf(blocks, address).duplicate();
+    int offset = (int) address;
+    byte[] value = new byte[bytes.getInt(offset)];
+    bytes.position(offset + 4);
+    bytes.get(value);
+    return value;
+  }
+
+  private String read(long address) {
+    return new String(bytesAt(blocks, address), StandardCharsets.UTF_8);
+  }
+
+  private boolean bytesEqual(long address, byte[] bytes) {
+    ByteBuffer from = blockOf(blocks, address);
+    int offset = (int) address;
+    if (from.getInt(offset) != bytes.length)
+      return false;
+    for (int i = 0; i < bytes.length; i++)
+      if (from.get(offset + 4 + i) != bytes[i])
+        return false;
+    return true;
+  }
+
+  /**
+   * @return whether the values at the addresses, in this store and the other, are the same bytes
+   */
+  private boolean bytesEqual(long address, CsvByteStore other, long otherAddress) {
+    if (other == this && address == otherAddress)
+      return true;
+    if (address <= 0 || otherAddress <= 0)
+      return false;
+    ByteBuffer from = blockOf(blocks, address);
+    ByteBuffer otherFrom = blockOf(other.blocks, otherAddress);
+    int offset = (int) address;
+    int otherOffset = (int) otherAddress;
+    int length = from.getInt(offset);
+    if (otherFrom.getInt(otherOffset) != length)
+      return false;
+    for (int i = 4; i < length + 4; i++)
+      if (from.get(offset + i) != otherFrom.get(otherOffset + i))
+        return false;
+    return true;
+  }
+
+  /**
+   * Count the bytes at the address as garbage, if it has any.
+   */
+  private void release(long address) {
+    if (address > 0)
+      garbageBytes += blockOf(blocks, address).getInt((int) address) + 4;
+  }
+
+  /**
+   * Rewrite the arena without the bytes of replaced and removed values, once they make up half of it.
+   */
+  private void collectGarbage() {
+    if (garbageBytes * 2 <= arenaBytes || arenaBytes < BLOCK_SIZE)
+      return;
+    ArrayList<ByteBuffer> oldBlocks = blocks;
+    blocks = new ArrayList<ByteBuffer>();
+    block = null;
+    arenaBytes = 0;
+    garbageBytes = 0;
+    for (int row = 0; row < end; row++) {
+      long key = rows.getLong(row, KEY);
+      if (key != 0) {
+        rows.putLong(row, KEY, write(bytesAt(oldBlocks, key)));
+        for (Chunks column : values) {
+          long value = column.getLong(row, 0);
+          if (value > 0)
+            column.putLong(row, 0, write(bytesAt(oldBlocks, value)));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the slot holding the key, or if it is absent -1 minus the slot it should be put in
+   */
+  private int find(byte[] key, int hash) {
+    checkOpen();
+    int mask = slotCount - 1;
+    int firstDeleted = -1;
+    for (int i = hash & mask;; i = (i + 1) & mask) {
+      int slot = slots.getInt(i, 0);
+      if (slot == FREE)
+        return -1 - (firstDeleted == -1 ? i : firstDeleted);
+      if (slot == DELETED) {
+        if (firstDeleted == -1)
+          firstDeleted = i;
+      } else if (rows.getInt(slot - 1, HASH) == hash && bytesEqual(rows.getLong(slot - 1, KEY), key))
+        return i;
+    }
+  }
+
+  /**
+   * @return the slot holding the key, or a negative number if it is absent
+   */
+  private int find(Object key) {
+    if (!(key instanceof String) || size == 0)
+      return -1;
+    return find(((String) key).getBytes(StandardCharsets.UTF_8), hash((String) key));
+  }
+
+  /**
+   * @return the row of the key, or -1 if it is absent
+   */
+  private int rowOf(Object key) {
+    int found = find(key);
+    return found < 0 ? -1 : slots.getInt(found, 0) - 1;
+  }
+
+  @Override
+  boolean addKey(String key) {
+    if (key == null)
+      throw new NullPointerException("Key may not be null");
+    checkOpen();
+    if ((size + deletedSlots + 1) * 2 > slotCount)
+      rehash();
+    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+    int hash = hash(key);
+    int found = find(bytes, hash);
+    if (found >= 0)
+      return false;
+    int slot = -1 - found;
+    if (slots.getInt(slot, 0) == DELETED)
+      deletedSlots--;
+    int row = end++;
+    rows.putLong(row, KEY, write(bytes));
+    rows.putInt(row, HASH, hash);
+    rows.putInt(row, LINE_NO, NO_RECORD);
+    slots.putInt(slot, 0, row + 1);
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  boolean removeKey(Object key) {
+    int found = find(key);
+    if (found < 0)
+      return false;
+    int row = slots.getInt(found, 0) - 1;
+    release(rows.getLong(row, KEY));
+    rows.putLong(row, KEY, 0);
+    for (Chunks column : values) {
+      release(column.getLong(row, 0));
+      column.putLong(row, 0, 0);
+    }
+    slots.putInt(found, 0, DELETED);
+    deletedSlots++;
+    size--;
+    modCount++;
+    collectGarbage();
+    return true;
+  }
+
+  /**
+   * Resize the hash table to keep it at most a third full, clearing its tombstones.
+   */
+  private void rehash() {
+    int count = INITIAL_CAPACITY;
+    while ((size + 1) * 3 > count)
+      count *= 2;
+    count = Math.max(count, slotCount);
+    slots = new Chunks(4, direct);
+    slotCount = count;
+    deletedSlots = 0;
+    int mask = count - 1;
+    for (int row = 0; row < end; row++) {
+      if (rows.getLong(row, KEY) != 0) {
+        int i = rows.getInt(row, HASH) & mask;
+        while (slots.getInt(i, 0) != FREE)
+          i = (i + 1) & mask;
+        slots.putInt(i, 0, row + 1);
+      }
+    }
+  }
+
+  /**
+   * Add a column to the table, for which the rows already present read as empty.
+   */
+  void addColumn(CsvColumn column) {
+    if (indexOf(column.getName()) == -1) {
+      int index = columnIndex(column);
+      emptyRows[index] = end;
+    }
+  }
+
+  @Override
+  public int indexOf(Object columnName) {
+    Integer index = nameToColumn.get(columnName);
+    return index == null ? -1 : index;
+  }
+
+  @Override
+  public int columnIndex(CsvColumn column) {
+    Integer index = nameToColumn.get(column.getName());
+    if (index != null)
+      return index;
+    nameToColumn.put(column.getName(), columns.size());
+    columns.add(column);
+    values.add(new Chunks(8, direct));
+    emptyRows = Arrays.copyOf(emptyRows, columns.size());
+    return columns.size() - 1;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return columns.size();
+  }
+
+  @Override
+  public CsvColumn getColumn(int column) {
+    return columns.get(column);
+  }
+
+  @Override
+  public String getValue(int row, int column) {
+    checkOpen();
+    long address = values.get(column).getLong(row, 0);
+    if (address == 0)
+      return row < emptyRows[column] ? "" : null;
+    if (address == EMPTY)
+      return "";
+    if (address == REMOVED)
+      return null;
+    return read(address);
+  }
+
+  /**
+   * @return the address of the value, with EMPTY for an empty one and REMOVED for none
+   */
+  private long addressOf(int row, int column) {
+    long address = values.get(column).getLong(row, 0);
+    if (address == 0)
+      return row < emptyRows[column] ? EMPTY : REMOVED;
+    return address;
+  }
+
+  @Override
+  public boolean isEmptyValue(int row, int column) {
+    checkOpen();
+    long address = addressOf(row, column);
+    return address == EMPTY || address == REMOVED;
+  }
+
+  @Override
+  public boolean valueEquals(int row, int column, CsvCellStore other, int otherRow, int otherColumn) {
+    checkOpen();
+    if (!(other instanceof CsvByteStore)) {
+      String value = getValue(row, column);
+      return value != null && value.equals(other.getValue(otherRow, otherColumn));
+    }
+    CsvByteStore otherStore = (CsvByteStore) other;
+    otherStore.checkOpen();
+    long address = addressOf(row, column);
+    long otherAddress = otherStore.addressOf(otherRow, otherColumn);
+    if (address == REMOVED || otherAddress == REMOVED)
+      return false;
+    if (address == EMPTY || otherAddress == EMPTY)
+      return address == otherAddress;
+    return bytesEqual(address, otherStore, otherAddress);
+  }
+
+  @Override
+  public void setValue(int row, int column, String value) {
+    checkOpen();
+    Chunks columnValues = values.get(column);
+    release(columnValues.getLong(row, 0));
+    long address;
+    if (value == null)
+      address = row < emptyRows[column] ? REMOVED : 0;
+    else if (value.length() == 0)
+      address = EMPTY;
+    else
+      address = write(value.getBytes(StandardCharsets.UTF_8));
+    columnValues.putLong(row, 0, address);
+    collectGarbage();
+  }
+
+  @Override
+  public int getLineNo(int row) {
+    checkOpen();
+    return rows.getInt(row, LINE_NO);
+  }
+
+  @Override
+  public void setLineNo(int row, int lineNo) {
+    checkOpen();
+    rows.putInt(row, LINE_NO, lineNo);
+  }
+
+  @Override
+  String keyAt(int position) {
+    checkOpen();
+    long address = rows.getLong(position, KEY);
+    return address == 0 ? null : read(address);
+  }
+
+  @Override
+  int end() {
+    return end;
+  }
+
+  @Override
+  public boolean contains(Object key) {
+    return find(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the bytes of the buffers this store refers to, some of which may be shared with copies
+   */
+  long getAllocatedBytes() {
+    checkOpen();
+    long bytes = rows.getAllocatedBytes() + slots.getAllocatedBytes();
+    for (Chunks column : values)
+      bytes += column.getAllocatedBytes();
+    for (ByteBuffer arenaBlock : blocks)
+      bytes += arenaBlock.capacity();
+    return bytes;
+  }
+
+  /**
+   * Start again with no keys, keeping the columns; views of the old rows may no longer be used.
+   */
+  @Override
+  void removeAllKeys() {
+    rows = new Chunks(ROW_BYTES, direct);
+    end = 0;
+    size = 0;
+    slots = new Chunks(4, direct);
+    slotCount = INITIAL_CAPACITY * 2;
+    deletedSlots = 0;
+    values = new ArrayList<Chunks>();
+    for (int i = 0; i < columns.size(); i++)
+      values.add(new Chunks(8, direct));
+    Arrays.fill(emptyRows, 0);
+    blocks = new ArrayList<ByteBuffer>();
+    block = null;
+    arenaBytes = 0;
+    garbageBytes = 0;
+    modCount++;
+  }
+
+  /**
+   * Give up the buffers, after which the store, and any view of its rows, may not be used.
+   */
+  @Override
+  public void close() {
+    rows = null;
+    end = 0;
+    size = 0;
+    slots = null;
+    values = null;
+    blocks = null;
+    block = null;
+    modCount++;
+  }
+
+  /**
+   * @return a map from each key to a view of its row, in key order; a record put in is copied into the key's row, and
+   *         one removed or replaced is returned as a copy
+   */
+  @Override
+  Map<String, CsvRecord> asMap(CsvTable table) {
+    return new Records(table);
+  }
+
+  private CsvRecord view(int row, CsvTable table) {
+    if (row == -1 || rows.getInt(row, LINE_NO) == NO_RECORD)
+      return null;
+    return new CsvColumnarRecord(table, this, row);
+  }
+
+  /**
+   * An array of fixed width elements in buffers, the first chunk doubling up to a full chunk, then a chunk added
+   * at a time as an element beyond them is written. Elements never written read as zero.
+   */
+  private static final class Chunks {
+    private int width;
+    private boolean direct;
+    private ByteBuffer[] chunks;
+    /** Whether each chunk is this array's own, rather than shared with a copy. */
+    private boolean[] own;
+
+    Chunks(int width, boolean direct) {
+      super();
+      this.width = width;
+      this.direct = direct;
+      this.chunks = new ByteBuffer[1];
+      this.own = new boolean[1];
+    }
+
+    /**
+     * A copy, sharing the chunks of the other until either writes to them.
+     */
+    Chunks(Chunks other) {
+      super();
+      this.width = other.width;
+      this.direct = other.direct;
+      this.chunks = other.chunks.clone();
+      this.own = new boolean[chunks.length];
+      Arrays.fill(other.own, false);
+    }
+
+    /**
+     * @return the chunk holding the element, or null if it has never been written
+     */
+    private ByteBuffer readable(int index) {
+      int chunk = index >>> CHUNK_BITS;
+      if (chunk >= chunks.length)
+        return null;
+      ByteBuffer buffer = chunks[chunk];
+      if (buffer == null || ((index & CHUNK_MASK) + 1) * width > buffer.capacity())
+        return null;
+      return buffer;
+    }
+
+    /**
+     * @return the chunk holding the element, allocated, grown or copied so that it is this array's own
+     */
+    private ByteBuffer writable(int index) {
+      int chunk = index >>> CHUNK_BITS;
+      if (chunk >= chunks.length) {
+        int length = Math.max(chunk + 1, chunks.length * 2);
+        chunks = Arrays.copyOf(chunks, length);
+        own = Arrays.copyOf(own, length);
+      }
+      ByteBuffer buffer = chunks[chunk];
+      int capacity = buffer == null ? 0 : buffer.capacity() / width;
+      if ((index & CHUNK_MASK) < capacity && own[chunk])
+        return buffer;
+      if ((index & CHUNK_MASK) >= capacity)
+        capacity = chunk > 0 ? CHUNK_SIZE : Math.min(CHUNK_SIZE,
+            Math.max(Math.max(INITIAL_CAPACITY, capacity * 2), Integer.highestOneBit(index) * 2));
+      ByteBuffer copy = allocate(capacity * width, direct).order(ByteOrder.nativeOrder());
+      if (buffer != null) {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        copy.put(source);
+      }
+      chunks[chunk] = copy;
+      own[chunk] = true;
+      return copy;
+    }
+
+    int getInt(int index, int offset) {
+      ByteBuffer buffer = readable(index);
+      return buffer == null ? 0 : buffer.getInt((index & CHUNK_MASK) * width + offset);
+    }
+
+    long getLong(int index, int offset) {
+      ByteBuffer buffer = readable(index);
+      return buffer == null ? 0 : buffer.getLong((index & CHUNK_MASK) * width + offset);
+    }
+
+    void putInt(int index, int offset, int value) {
+      writable(index).putInt((index & CHUNK_MASK) * width + offset, value);
+    }
+
+    void putLong(int index, int offset, long value) {
+      writable(index).putLong((index & CHUNK_MASK) * width + offset, value);
+    }
+
+    long getAllocatedBytes() {
+      long bytes = 0;
+      for (ByteBuffer buffer : chunks)
+        if (buffer != null)
+          bytes += buffer.capacity();
+      return bytes;
+    }
+  }
+
+  /**
+   * The keys and views of their rows as a map.
+   */
+  private final class Records extends AbstractMap<String, CsvRecord> {
+    private CsvTable table;
+
+    Records(CsvTable table) {
+      super();
+      this.table = table;
+    }
+
+    @Override
+    public CsvRecord get(Object key) {
+      return view(rowOf(key), table);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return contains(key);
+    }
+
+    /**
+     * @return a record holding the values of the row, which is not changed by later changes to it, or null
+     */
+    private CsvRecord detach(int row) {
+      CsvRecord view = view(row, table);
+      if (view == null)
+        return null;
+      CsvRecord record = new CsvRecord(table);
+      for (CsvField field : view.values())
+        record.addField(new CsvField(field.getColumn(), field.getValue()));
+      record.setLineNo(view.getLineNo());
+      return record;
+    }
+
+    /**
+     * Copy the record's fields into the key's row, adding the key at the end if it is not already present.
+     *
+     * @return a copy of the key's previous record, or null
+     */
+    @Override
+    public CsvRecord put(String key, CsvRecord record) {
+      addKey(key);
+      int row = rowOf(key);
+      CsvRecord previous = detach(row);
+      if (previous != null)
+        for (int column = 0; column < columns.size(); column++)
+          setValue(row, column, null);
+      for (CsvField field : record.values())
+        setValue(row, columnIndex(field.getColumn()), field.getValue());
+      setLineNo(row, record.getLineNo());
+      return previous;
+    }
+
+    /**
+     * @return a copy of the key's record, or null
+     */
+    @Override
+    public CsvRecord remove(Object key) {
+      CsvRecord record = detach(rowOf(key));
+      removeKey(key);
+      return record;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      removeAllKeys();
+    }
+
+    @Override
+    public Set<Map.Entry<String, CsvRecord>> entrySet() {
+      return new AbstractSet<Map.Entry<String, CsvRecord>>() {
+        @Override
+        public Iterator<Map.Entry<String, CsvRecord>> iterator() {
+          return new Iterator<Map.Entry<String, CsvRecord>>() {
+            private int position = 0;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+              while (position < end && rows.getLong(position, KEY) == 0)
+                position++;
+              return position < end;
+            }
+
+            @Override
+            public Map.Entry<String, CsvRecord> next() {
+              if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+              if (!hasNext())
+                throw new NoSuchElementException();
+              String key = keyAt(position);
+              return new SimpleImmutableEntry<String, CsvRecord>(key, view(position++, table));
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+  }
+}
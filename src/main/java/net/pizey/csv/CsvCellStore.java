@@ -0,0 +1,44 @@
+package net.pizey.csv;
+
+/**
+ * The values of a table's records held by row and column, rather than in records, which a
+ * {@link CsvColumnarRecord} presents as the fields of a row.
+ * <p>
+ * Columns are numbered by the store in the order it first sees them, not by the table's ordinals. A null value means
+ * the row has no field for that column.
+ */
+interface CsvCellStore {
+
+  /**
+   * @return the index of the named column, or -1 if no row has ever had a field for it
+   */
+  int indexOf(Object columnName);
+
+  /**
+   * @return the index of the column, adding it if need be
+   */
+  int columnIndex(CsvColumn column);
+
+  int getColumnCount();
+
+  CsvColumn getColumn(int column);
+
+  String getValue(int row, int column);
+
+  void setValue(int row, int column, String value);
+
+  /**
+   * @return whether the row's value for the column is empty, or it has none
+   */
+  boolean isEmptyValue(int row, int column);
+
+  /**
+   * @return whether the value of the row and column equals that of the other store's row and column, false if either
+   *         has none
+   */
+  boolean valueEquals(int row, int column, CsvCellStore other, int otherRow, int otherColumn);
+
+  int getLineNo(int row);
+
+  void setLineNo(int row, int lineNo);
+}
@@ -0,0 +1,113 @@
+package net.pizey.csv;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The distinct values of a column, used whilst a table is loaded so that every field with the same value shares one
+ * String.
+ * <p>
+ * A column with many distinct values gains nothing from this, so the dictionary switches itself off once it has seen
+ * more than its limit of distinct values; fields read before then keep their shared values. It may be used by several
+ * loading threads at once.
+ */
+public class CsvColumnDictionary {
+
+  static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+  private String columnName;
+  private int maximumSize;
+
+  private volatile ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+  private volatile boolean enabled = true;
+  private AtomicInteger distinct = new AtomicInteger();
+  private AtomicLong shared = new AtomicLong();
+  private AtomicLong savedBytes = new AtomicLong();
+
+  public CsvColumnDictionary(String columnName) {
+    this(columnName, DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * @param maximumSize
+   *          the number of distinct values beyond which the dictionary switches itself off
+   */
+  public CsvColumnDictionary(String columnName, int maximumSize) {
+    super();
+    this.columnName = columnName;
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * @return the instance already seen with the same value, or the value itself
+   */
+  public String intern(String value) {
+    ConcurrentHashMap<String, String> map = values;
+    if (!enabled || map == null)
+      return value;
+    String existing = map.putIfAbsent(value, value);
+    if (existing != null) {
+      shared.incrementAndGet();
+      savedBytes.addAndGet(sizeOf(value));
+      return existing;
+    }
+    if (distinct.incrementAndGet() > maximumSize) {
+      enabled = false;
+      values = null;
+    }
+    return value;
+  }
+
+  /**
+   * Drop the values, once the table is loaded; later values are not interned.
+   */
+  public void release() {
+    values = null;
+  }
+
+  public String getColumnName() {
+    return columnName;
+  }
+
+  /**
+   * @return whether the column had few enough distinct values to be interned
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the number of distinct values seen, up to one more than the limit
+   */
+  public int getDistinctCount() {
+    return distinct.get();
+  }
+
+  /**
+   * @return the number of fields which were given an existing instance
+   */
+  public long getSharedCount() {
+    return shared.get();
+  }
+
+  /**
+   * @return an estimate of the heap saved by sharing values
+   */
+  public long getSavedBytes() {
+    return savedBytes.get();
+  }
+
+  /**
+   * @return an estimate of the heap taken by a String, with its char array, on a 64 bit JVM
+   */
+  static long sizeOf(String value) {
+    return 24 + ((16 + 2L * value.length() + 7) & ~7L);
+  }
+
+  @Override
+  public String toString() {
+    return columnName + (enabled ? "" : " (disabled)") + ": " + distinct + " distinct, " + shared
+        + " shared, " + savedBytes + " bytes saved";
+  }
+}
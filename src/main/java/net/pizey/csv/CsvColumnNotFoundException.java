@@ -0,0 +1,17 @@
+package net.pizey.csv;
+
+/**
+ * Thrown when a column is asked for by name but the file does not have it.
+ */
+public class CsvColumnNotFoundException extends CsvException {
+
+  private static final long serialVersionUID = 2906424118623491763L;
+
+  /**
+   * @param message
+   */
+  public CsvColumnNotFoundException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,472 @@
+package net.pizey.csv;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The records of a COLUMNAR table, held as one array of values per column and a row number per key.
+ * <p>
+ * No CsvRecord or CsvField is kept: {@link #get(Object)} returns a {@link CsvColumnarRecord} view of a row, whose
+ * fields read and write the arrays. A record put in is copied into a new row. A row which is removed or replaced has
+ * its values released at once and is reused by a later put, so a view of it must not be used after; the record
+ * returned is a copy. Clearing the store releases all its rows. A null value means the row has no field for that
+ * column, unless the row was present when the column was added, in which case it reads as empty.
+ * <p>
+ * Each column is held in chunks of rows, which a copy of the store shares with the original until either writes to a
+ * chunk, when it copies just that chunk; a chunk no row has a value in is not allocated. So copying a table costs in
+ * proportion to its chunks and keys rather than its values.
+ */
+final class CsvColumnStore extends AbstractMap<String, CsvRecord> implements CsvCellStore {
+
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  private static final int INITIAL_ROWS = 16;
+  /** The number of rows {@link #appendRows(StringBuffer, Collection, List)} reads a column of at a time. */
+  private static final int BLOCK_ROWS = 256;
+
+  /** The value of a field removed from a row which would otherwise read as empty, told apart by identity. */
+  private static final String REMOVED = new String("");
+
+  private CsvTable table;
+
+  private HashMap<String, Integer> nameToColumn;
+  private ArrayList<CsvColumn> columns;
+  /** The values of each column, by chunk of rows, with null for a chunk without values. */
+  private ArrayList<String[][]> values;
+  /** Whether each chunk of each column is this store's own, rather than shared with a copy. */
+  private ArrayList<boolean[]> ownValues;
+  /** The number of rows present when each column was added, which read as empty for it. */
+  private int[] emptyRows;
+  private int[][] lineNos;
+  private boolean[] ownLineNos;
+  /** The number of rows in the chunks, less than a chunk or a whole number of chunks. */
+  private int capacity;
+  private int rowCount;
+  /** Rows which have been removed or replaced, to be reused. */
+  private int[] freeRows;
+  private int freeCount;
+
+  private HashMap<String, Integer> keyToRow;
+
+  CsvColumnStore(CsvTable table) {
+    super();
+    this.table = table;
+    nameToColumn = new HashMap<String, Integer>();
+    columns = new ArrayList<CsvColumn>();
+    values = new ArrayList<String[][]>();
+    ownValues = new ArrayList<boolean[]>();
+    emptyRows = new int[0];
+    keyToRow = new HashMap<String, Integer>();
+    newRows();
+  }
+
+  /**
+   * A copy for the table, sharing the chunks of the other store until either writes to them.
+   */
+  CsvColumnStore(CsvColumnStore other, CsvTable table) {
+    super();
+    this.table = table;
+    nameToColumn = new HashMap<String, Integer>(other.nameToColumn);
+    columns = new ArrayList<CsvColumn>(other.columns);
+    values = new ArrayList<String[][]>();
+    ownValues = new ArrayList<boolean[]>();
+    for (int column = 0; column < other.values.size(); column++) {
+      values.add(other.values.get(column).clone());
+      ownValues.add(new boolean[other.values.get(column).length]);
+      Arrays.fill(other.ownValues.get(column), false);
+    }
+    emptyRows = other.emptyRows.clone();
+    lineNos = other.lineNos.clone();
+    ownLineNos = new boolean[lineNos.length];
+    Arrays.fill(other.ownLineNos, false);
+    capacity = other.capacity;
+    rowCount = other.rowCount;
+    freeRows = other.freeRows.clone();
+    freeCount = other.freeCount;
+    keyToRow = new HashMap<String, Integer>(other.keyToRow);
+  }
+
+  @Override
+  public int indexOf(Object columnName) {
+    Integer index = nameToColumn.get(columnName);
+    return index == null ? -1 : index;
+  }
+
+  @Override
+  public int columnIndex(CsvColumn column) {
+    Integer index = nameToColumn.get(column.getName());
+    if (index != null)
+      return index;
+    nameToColumn.put(column.getName(), columns.size());
+    columns.add(column);
+    values.add(new String[lineNos.length][]);
+    ownValues.add(new boolean[lineNos.length]);
+    emptyRows = Arrays.copyOf(emptyRows, columns.size());
+    return columns.size() - 1;
+  }
+
+  /**
+   * Add a column to the table, for which the rows already present read as empty.
+   */
+  void addColumn(CsvColumn column) {
+    if (indexOf(column.getName()) == -1) {
+      int index = columnIndex(column);
+      emptyRows[index] = rowCount;
+    }
+  }
+
+  @Override
+  public int getColumnCount() {
+    return columns.size();
+  }
+
+  @Override
+  public CsvColumn getColumn(int column) {
+    return columns.get(column);
+  }
+
+  @Override
+  public String getValue(int row, int column) {
+    String[] chunk = values.get(column)[row >>> CHUNK_BITS];
+    String value = chunk == null ? null : chunk[row & CHUNK_MASK];
+    if (value == null)
+      return row < emptyRows[column] ? "" : null;
+    return value == REMOVED ? null : value;
+  }
+
+  @Override
+  public void setValue(int row, int column, String value) {
+    if (value == null && row >= emptyRows[column] && values.get(column)[row >>> CHUNK_BITS] == null)
+      return;
+    ownValueChunk(column, row)[row & CHUNK_MASK] = value == null && row < emptyRows[column] ? REMOVED : value;
+  }
+
+  /**
+   * @return the chunk of the column holding the row, first allocating it if it has no values or copying it if it is
+   *         shared
+   */
+  private String[] ownValueChunk(int column, int row) {
+    int chunk = row >>> CHUNK_BITS;
+    String[][] chunks = values.get(column);
+    boolean[] own = ownValues.get(column);
+    if (chunks[chunk] == null) {
+      chunks[chunk] = new String[Math.min(capacity, CHUNK_SIZE)];
+      own[chunk] = true;
+    } else if (!own[chunk]) {
+      chunks[chunk] = chunks[chunk].clone();
+      own[chunk] = true;
+    }
+    return chunks[chunk];
+  }
+
+  @Override
+  public boolean isEmptyValue(int row, int column) {
+    String value = getValue(row, column);
+    return value == null || value.length() == 0;
+  }
+
+  @Override
+  public boolean valueEquals(int row, int column, CsvCellStore other, int otherRow, int otherColumn) {
+    String value = getValue(row, column);
+    return value != null && value.equals(other.getValue(otherRow, otherColumn));
+  }
+
+  @Override
+  public int getLineNo(int row) {
+    return lineNos[row >>> CHUNK_BITS][row & CHUNK_MASK];
+  }
+
+  @Override
+  public void setLineNo(int row, int lineNo) {
+    int chunk = row >>> CHUNK_BITS;
+    if (!ownLineNos[chunk]) {
+      lineNos[chunk] = lineNos[chunk].clone();
+      ownLineNos[chunk] = true;
+    }
+    lineNos[chunk][row & CHUNK_MASK] = lineNo;
+  }
+
+  /**
+   * Start again without rows, keeping the columns.
+   */
+  private void newRows() {
+    for (int column = 0; column < values.size(); column++) {
+      values.set(column, new String[1][]);
+      ownValues.set(column, new boolean[1]);
+    }
+    Arrays.fill(emptyRows, 0);
+    lineNos = new int[][] { new int[INITIAL_ROWS] };
+    ownLineNos = new boolean[] { true };
+    capacity = INITIAL_ROWS;
+    rowCount = 0;
+    freeRows = new int[INITIAL_ROWS];
+    freeCount = 0;
+  }
+
+  private int newRow() {
+    if (freeCount > 0) {
+      int row = freeRows[--freeCount];
+      // Columns added since it was released would read as empty
+      clearRow(row);
+      return row;
+    }
+    if (rowCount == capacity)
+      growRows();
+    return rowCount++;
+  }
+
+  /**
+   * Remove every value of the row, so it reads as a new row would.
+   */
+  private void clearRow(int row) {
+    for (int column = 0; column < values.size(); column++)
+      setValue(row, column, null);
+  }
+
+  /**
+   * Release the values of a row which has been removed or replaced, and keep it to be reused.
+   */
+  private void freeRow(int row) {
+    clearRow(row);
+    if (freeCount == freeRows.length)
+      freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+    freeRows[freeCount++] = row;
+  }
+
+  /**
+   * @return a record holding a copy of the row's fields, which outlives the row
+   */
+  private CsvRecord copy(Integer row) {
+    if (row == null)
+      return null;
+    CsvRecord record = new CsvRecord(table);
+    for (int column = 0; column < values.size(); column++) {
+      String value = getValue(row, column);
+      if (value != null)
+        record.addField(new CsvField(columns.get(column), value));
+    }
+    record.setLineNo(getLineNo(row));
+    return record;
+  }
+
+  /**
+   * Release the row which a key no longer has, if any.
+   *
+   * @return a copy of the row, or null
+   */
+  private CsvRecord release(Integer row) {
+    CsvRecord removed = copy(row);
+    if (row != null)
+      freeRow(row);
+    return removed;
+  }
+
+  /**
+   * Double the rows up to a chunk, then add a chunk at a time.
+   */
+  private void growRows() {
+    if (capacity < CHUNK_SIZE) {
+      capacity = Math.min(capacity * 2, CHUNK_SIZE);
+      lineNos[0] = Arrays.copyOf(lineNos[0], capacity);
+      ownLineNos[0] = true;
+      for (int column = 0; column < values.size(); column++) {
+        String[][] chunks = values.get(column);
+        if (chunks[0] != null) {
+          chunks[0] = Arrays.copyOf(chunks[0], capacity);
+          ownValues.get(column)[0] = true;
+        }
+      }
+    } else {
+      int chunks = lineNos.length + 1;
+      lineNos = Arrays.copyOf(lineNos, chunks);
+      lineNos[chunks - 1] = new int[CHUNK_SIZE];
+      ownLineNos = Arrays.copyOf(ownLineNos, chunks);
+      ownLineNos[chunks - 1] = true;
+      for (int column = 0; column < values.size(); column++) {
+        values.set(column, Arrays.copyOf(values.get(column), chunks));
+        ownValues.set(column, Arrays.copyOf(ownValues.get(column), chunks));
+      }
+      capacity += CHUNK_SIZE;
+    }
+  }
+
+  private CsvRecord view(Integer row) {
+    return row == null ? null : new CsvColumnarRecord(table, this, row);
+  }
+
+  @Override
+  public CsvRecord get(Object key) {
+    return view(keyToRow.get(key));
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return keyToRow.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return keyToRow.size();
+  }
+
+  /**
+   * Copy the record's fields into a new row.
+   *
+   * @return a copy of the row previously held for the key, or null
+   */
+  @Override
+  public CsvRecord put(String key, CsvRecord record) {
+    int row = newRow();
+    for (CsvField field : record.values())
+      setValue(row, columnIndex(field.getColumn()), field.getValue());
+    setLineNo(row, record.getLineNo());
+    return release(keyToRow.put(key, row));
+  }
+
+  @Override
+  public CsvRecord remove(Object key) {
+    return release(keyToRow.remove(key));
+  }
+
+  @Override
+  public void clear() {
+    keyToRow.clear();
+    newRows();
+  }
+
+  /**
+   * Find the candidate's records which unifying with this store's rows might change, or which would fail, comparing
+   * the values of a column of every row at a time rather than the fields of a record at a time. Each other candidate
+   * record has its key here, and each of its values is already this row's, so unifying it would do nothing.
+   *
+   * @param candidateKeys
+   *          the candidate's keys, in the order its records are to be unified
+   * @param candidateColumns
+   *          the candidate's columns, whose fields its records unify
+   * @return the keys of the records which are to be unified, in the same order
+   */
+  List<String> keysToUnify(Collection<String> candidateKeys, CsvColumnStore candidate,
+      List<CsvColumn> candidateColumns, boolean unifyWithEmpty) {
+    String[] keys = candidateKeys.toArray(new String[candidateKeys.size()]);
+    int[] rows = new int[keys.length];
+    int[] candidateRows = new int[keys.length];
+    boolean[] unifying = new boolean[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      Integer row = keyToRow.get(keys[i]);
+      Integer candidateRow = candidate.keyToRow.get(keys[i]);
+      if (row == null || candidateRow == null)
+        unifying[i] = true;
+      else {
+        rows[i] = row;
+        candidateRows[i] = candidateRow;
+      }
+    }
+    for (CsvColumn column : candidateColumns) {
+      int candidateColumn = candidate.indexOf(column.getName());
+      int thisColumn = indexOf(column.getName());
+      for (int i = 0; i < keys.length; i++) {
+        if (unifying[i])
+          continue;
+        String candidateValue = candidateColumn == -1 ? null : candidate.getValue(candidateRows[i], candidateColumn);
+        String value = thisColumn == -1 ? null : getValue(rows[i], thisColumn);
+        if (candidateValue == null)
+          unifying[i] = true;
+        else if (value == null)
+          unifying[i] = unifyWithEmpty;
+        else if (value.length() == 0 && unifyWithEmpty)
+          unifying[i] = candidateValue.length() > 0;
+        else
+          unifying[i] = !value.equals(candidateValue);
+      }
+    }
+    ArrayList<String> unifyingKeys = new ArrayList<String>();
+    for (int i = 0; i < keys.length; i++)
+      if (unifying[i])
+        unifyingKeys.add(keys[i]);
+    return unifyingKeys;
+  }
+
+  /**
+   * Append the rows of the keys, each as its view's toString() would give it followed by a comma and a new line,
+   * reading the values of a block of rows a column at a time.
+   */
+  void appendRows(StringBuffer buffer, Collection<String> keys, List<CsvColumn> columnsInOrder) {
+    int[] columnIndexes = new int[columnsInOrder.size()];
+    for (int i = 0; i < columnIndexes.length; i++)
+      columnIndexes[i] = indexOf(columnsInOrder.get(i).getName());
+    int[] rows = new int[BLOCK_ROWS];
+    String[][] block = new String[columnIndexes.length][BLOCK_ROWS];
+    Iterator<String> keyIterator = keys.iterator();
+    while (keyIterator.hasNext()) {
+      int count = 0;
+      while (count < BLOCK_ROWS && keyIterator.hasNext())
+        rows[count++] = keyToRow.get(keyIterator.next());
+      for (int i = 0; i < columnIndexes.length; i++)
+        for (int j = 0; j < count; j++)
+          block[i][j] = columnIndexes[i] == -1 ? null : getValue(rows[j], columnIndexes[i]);
+      for (int j = 0; j < count; j++) {
+        appendRow(buffer, block, j, rows[j]);
+        buffer.append(",\n");
+      }
+    }
+  }
+
+  private void appendRow(StringBuffer buffer, String[][] block, int j, int row) {
+    for (int i = 0; i < block.length; i++)
+      if (block[i][j] == null) {
+        // A missing field is left to the record to deal with
+        buffer.append(view(row).toString());
+        return;
+      }
+    for (int i = 0; i < block.length; i++) {
+      if (i > 0)
+        buffer.append(',');
+      buffer.append(block[i][j]);
+    }
+  }
+
+  @Override
+  public Set<Map.Entry<String, CsvRecord>> entrySet() {
+    return new AbstractSet<Map.Entry<String, CsvRecord>>() {
+      @Override
+      public Iterator<Map.Entry<String, CsvRecord>> iterator() {
+        final Iterator<Map.Entry<String, Integer>> rows = keyToRow.entrySet().iterator();
+        return new Iterator<Map.Entry<String, CsvRecord>>() {
+          private Integer lastRow;
+
+          @Override
+          public boolean hasNext() {
+            return rows.hasNext();
+          }
+
+          @Override
+          public Map.Entry<String, CsvRecord> next() {
+            Map.Entry<String, Integer> row = rows.next();
+            lastRow = row.getValue();
+            return new SimpleImmutableEntry<String, CsvRecord>(row.getKey(), view(lastRow));
+          }
+
+          @Override
+          public void remove() {
+            rows.remove();
+            freeRow(lastRow);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keyToRow.size();
+      }
+    };
+  }
+}
@@ -0,0 +1,38 @@
+package net.pizey.csv;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Accepts rows in which a column has a given value.
+ */
+public class CsvColumnValueFilter implements CsvRowFilter {
+
+  private String columnName;
+  private String value;
+
+  public CsvColumnValueFilter(String columnName, String value) {
+    super();
+    if (columnName == null)
+      throw new NullPointerException();
+    if (value == null)
+      throw new NullPointerException();
+    this.columnName = columnName;
+    this.value = value;
+  }
+
+  @Override
+  public Collection<String> getColumnNames() {
+    return Collections.singletonList(columnName);
+  }
+
+  @Override
+  public boolean accept(CsvRow row) {
+    return value.equals(row.get(columnName));
+  }
+
+  @Override
+  public String toString() {
+    return columnName + " == " + value;
+  }
+}
@@ -0,0 +1,187 @@
+package net.pizey.csv;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * A view of a row of a {@link CsvCellStore}.
+ * <p>
+ * Fields are created as they are asked for, and read and write the store, so a change through one view is seen by
+ * every other. The sets and collection returned by entrySet(), keySet() and values() are copies.
+ */
+final class CsvColumnarRecord extends CsvRecord {
+
+  private CsvCellStore store;
+  private int row;
+
+  CsvColumnarRecord(CsvTable table, CsvCellStore store, int row) {
+    super(table, 0);
+    this.store = store;
+    this.row = row;
+  }
+
+  private CsvField field(int column) {
+    return store.getValue(row, column) == null ? null : new Field(column);
+  }
+
+  /**
+   * @return the fields of the row, as a map
+   */
+  private HashMap<String, CsvField> fields() {
+    HashMap<String, CsvField> fields = new HashMap<String, CsvField>();
+    for (int i = 0; i < store.getColumnCount(); i++) {
+      CsvField field = field(i);
+      if (field != null)
+        fields.put(store.getColumn(i).getName(), field);
+    }
+    return fields;
+  }
+
+  @Override
+  CsvField fieldAt(int ordinal) {
+    return get(getTable().getSchema().getColumn(ordinal).getName());
+  }
+
+  @Override
+  public void replaceField(CsvField oldField, CsvField newField) {
+    store.setValue(row, store.columnIndex(oldField.getColumn()), newField.getValue());
+  }
+
+  @Override
+  public CsvField addField(CsvField field) {
+    int column = store.columnIndex(field.getColumn());
+    CsvField previous = field(column);
+    if (previous != null)
+      previous = new CsvField(previous.getColumn(), previous.getValue());
+    store.setValue(row, column, field.getValue());
+    return previous;
+  }
+
+  @Override
+  public int getLineNo() {
+    return store.getLineNo(row);
+  }
+
+  @Override
+  public void setLineNo(int lineNo) {
+    store.setLineNo(row, lineNo);
+  }
+
+  @Override
+  public CsvField get(Object name) {
+    int column = store.indexOf(name);
+    return column == -1 ? null : field(column);
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    int column = store.indexOf(name);
+    return column != -1 && store.getValue(row, column) != null;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    return fields().containsValue(value);
+  }
+
+  @Override
+  public Set<java.util.Map.Entry<String, CsvField>> entrySet() {
+    return fields().entrySet();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return fields().keySet();
+  }
+
+  @Override
+  public CsvField remove(Object name) {
+    int column = store.indexOf(name);
+    if (column == -1 || store.getValue(row, column) == null)
+      return null;
+    CsvField removed = new CsvField(store.getColumn(column), store.getValue(row, column));
+    store.setValue(row, column, null);
+    return removed;
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < store.getColumnCount(); i++)
+      if (store.getValue(row, i) != null)
+        size++;
+    return size;
+  }
+
+  @Override
+  public Collection<CsvField> values() {
+    return fields().values();
+  }
+
+  /**
+   * Reads the values straight from the store, without creating fields.
+   */
+  @Override
+  public String toString() {
+    StringBuffer returnStringBuffer = new StringBuffer();
+    for (CsvColumn column : getTable().getColumnsInOrder()) {
+      int index = store.indexOf(column.getName());
+      if (index == -1 || store.getValue(row, index) == null)
+        return super.toString();
+      if (returnStringBuffer.length() > 0)
+        returnStringBuffer.append(',');
+      returnStringBuffer.append(store.getValue(row, index));
+    }
+    return returnStringBuffer.toString();
+  }
+
+  /**
+   * A field which reads and writes its value in the store.
+   */
+  private final class Field extends CsvField {
+    private int column;
+
+    Field(int column) {
+      super(store.getColumn(column), "");
+      this.column = column;
+    }
+
+    @Override
+    public String getValue() {
+      String value = store.getValue(row, column);
+      return value == null ? "" : value;
+    }
+
+    @Override
+    public void setValue(String value) {
+      store.setValue(row, column, value);
+    }
+
+    @Override
+    boolean hasEmptyValue() {
+      return store.isEmptyValue(row, column);
+    }
+
+    @Override
+    boolean valueEquals(CsvField other) {
+      if (!(other instanceof Field))
+        return super.valueEquals(other);
+      Field otherField = (Field) other;
+      return store.valueEquals(row, column, otherField.getStore(), otherField.getRow(), otherField.column);
+    }
+
+    private CsvCellStore getStore() {
+      return store;
+    }
+
+    private int getRow() {
+      return row;
+    }
+  }
+}
@@ -0,0 +1,711 @@
+package net.pizey.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Unifies a candidate CSV file with a current one without holding either in memory, writing the result in the form of
+ * {@link CsvTable#toString()}.
+ * <p>
+ * Each file is read a record at a time, and whenever the records read take up half the memory budget they are sorted
+ * by primary key and written to a temporary run file. The runs of each file are merged, in as many passes as the
+ * budget has buffers for, and the two files are then read back together in key order. A file which is already in key
+ * order is not sorted but read straight into the join; to find that out its keys are read first, so such a file is
+ * read twice, and a file which is not is read as far as its first key out of order before it is sorted. Both files
+ * are read straight through, once, by {@link #unifySorted}, which is told they are in order. Matching records are
+ * unified just as by {@link CsvTable#unify(CsvTable, boolean)}, under the same {@link UnificationOptions}, into a
+ * temporary file of rows which is written out once the columns of the result are known, as a column the candidate
+ * adds may turn up at any record; so the result is held on disk, though not in memory, before it is written.
+ * <p>
+ * The result holds the same records, columns and values as the table CsvTable.unify returns, but in key order rather
+ * than in the order the records were added; messages for candidate records which are not found are logged in key
+ * order too. A unification error is thrown once both files have been read, and is the one CsvTable.unify would have
+ * thrown first; nothing is written in that case.
+ * <p>
+ * Keys are in String order unless the unifier is given another key order.
+ */
+public final class CsvExternalUnifier {
+
+  /** The memory budget used unless another is given. */
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  /** The size of the buffer through which each run is read or written. */
+  static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+  /** The smallest memory budget, enough for a run buffer for each of two runs of each file. */
+  public static final long MINIMUM_MEMORY_BUDGET = 4 * RUN_BUFFER_SIZE;
+
+  /** Kinds of row of the result. */
+  private static final byte CURRENT = 0;
+  private static final byte UNIFIED = 1;
+  private static final byte DEFAULTED = 2;
+
+  private UnificationOptions unificationOption;
+  private long memoryBudget;
+  private File temporaryDirectory;
+  private Comparator<String> keyOrder;
+
+  /** Records by key, then by line, so that a duplicate key is found where it appears. */
+  private final Comparator<Record> recordOrder = new Comparator<Record>() {
+    @Override
+    public int compare(Record one, Record other) {
+      int order = compareKeys(one, other);
+      return order != 0 ? order : Integer.compare(one.lineNo, other.lineNo);
+    }
+  };
+
+  public CsvExternalUnifier(UnificationOptions unificationOption) {
+    this(unificationOption, DEFAULT_MEMORY_BUDGET, null);
+  }
+
+  /**
+   * @param memoryBudget
+   *          the bytes of heap to hold records and buffers in, at least {@link #MINIMUM_MEMORY_BUDGET}, which bounds
+   *          the memory used however large the files are
+   * @param temporaryDirectory
+   *          where to write run files, or null for the default temporary directory
+   */
+  public CsvExternalUnifier(UnificationOptions unificationOption, long memoryBudget, File temporaryDirectory) {
+    this(unificationOption, memoryBudget, temporaryDirectory, null);
+  }
+
+  /**
+   * @param keyOrder
+   *          the order of the keys, in which the result is written and in which {@link #unifySorted} expects its files,
+   *          or null for String order
+   */
+  public CsvExternalUnifier(UnificationOptions unificationOption, long memoryBudget, File temporaryDirectory,
+      Comparator<String> keyOrder) {
+    super();
+    if (memoryBudget < MINIMUM_MEMORY_BUDGET)
+      throw new IllegalArgumentException("Memory budget must be at least " + MINIMUM_MEMORY_BUDGET + " bytes");
+    this.unificationOption = unificationOption;
+    this.memoryBudget = memoryBudget;
+    this.temporaryDirectory = temporaryDirectory;
+    this.keyOrder = keyOrder == null ? Comparator.<String> naturalOrder() : keyOrder;
+  }
+
+  /**
+   * Unify files keyed by their first columns.
+   */
+  public void unify(File currentFile, File candidateFile, boolean unifyWithEmpty, Writer output)
+      throws IOException {
+    unify(currentFile, null, candidateFile, null, unifyWithEmpty, output);
+  }
+
+  /**
+   * Unify files in any order, sorting each which is not already in key order; a file which is is read twice, first to
+   * find that out, and then into the join.
+   * 
+   * @param currentKeyName
+   *          the primary key column of the current file, or null for its first column
+   * @param candidateKeyName
+   *          the primary key column of the candidate file, or null for its first column
+   * @param unifyWithEmpty
+   *          whether a filled field can unify with an empty one
+   * @throws CsvDuplicateKeyException
+   *           if a key appears twice in either file
+   * @throws CsvRecordUnificationException
+   *           if a field of a candidate record conflicts with the current one
+   * @throws CsvRecordNotFoundException
+   *           if the option is THROW and a candidate record's key is not in the current file
+   */
+  public void unify(File currentFile, String currentKeyName, File candidateFile, String candidateKeyName,
+      boolean unifyWithEmpty, Writer output) throws IOException {
+    unify(currentFile, currentKeyName, candidateFile, candidateKeyName, unifyWithEmpty, output, false);
+  }
+
+  /**
+   * Unify files which are both in the unifier's key order, reading each straight through once without sorting it, so
+   * holding only a record of each in memory. The result is still written to a temporary file before the writer, as
+   * the columns it has are only known once both files have been read.
+   * 
+   * @throws CsvKeyOrderException
+   *           if a key in either file comes before the key on the line before it
+   * @see #unify(File, String, File, String, boolean, Writer)
+   */
+  public void unifySorted(File currentFile, String currentKeyName, File candidateFile, String candidateKeyName,
+      boolean unifyWithEmpty, Writer output) throws IOException {
+    unify(currentFile, currentKeyName, candidateFile, candidateKeyName, unifyWithEmpty, output, true);
+  }
+
+  private void unify(File currentFile, String currentKeyName, File candidateFile, String candidateKeyName,
+      boolean unifyWithEmpty, Writer output, boolean sorted) throws IOException {
+    ArrayList<File> temporaryFiles = new ArrayList<File>();
+    try {
+      Input current = open(currentFile, currentKeyName);
+      if (!sorted && !isSorted(current))
+        sort(current, temporaryFiles);
+      Input candidate = open(candidateFile, candidateKeyName);
+      if (!sorted && !isSorted(candidate))
+        sort(candidate, temporaryFiles);
+      new Join(current, candidate, unifyWithEmpty).run(temporaryFiles, output);
+    } finally {
+      for (File file : temporaryFiles)
+        file.delete();
+    }
+  }
+
+  /**
+   * @return the order of the records' keys
+   */
+  private int compareKeys(Record one, Record other) {
+    return keyOrder.compare(one.key, other.key);
+  }
+
+  /**
+   * @return the records of the file in key order, merged from its runs, or read straight from it if it has none
+   */
+  private Source open(Input input) throws IOException {
+    return input.runs.isEmpty() ? new SortedReader(input) : new Merger(input.runs, input.keyIndex);
+  }
+
+  private File newRunFile(ArrayList<File> temporaryFiles) throws IOException {
+    File file = File.createTempFile("csvunify", ".run", temporaryDirectory);
+    temporaryFiles.add(file);
+    return file;
+  }
+
+  private static DataOutputStream openForWriting(File file) throws IOException {
+    return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), RUN_BUFFER_SIZE));
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+    out.writeBoolean(true);
+    writeFields(out, record);
+  }
+
+  private static void writeFields(DataOutputStream out, Record record) throws IOException {
+    out.writeInt(record.lineNo);
+    out.writeInt(record.values.length);
+    for (String value : record.values)
+      writeString(out, value);
+  }
+
+  /**
+   * Mark the end of the records.
+   */
+  private static void writeEnd(DataOutputStream out) throws IOException {
+    out.writeBoolean(false);
+    out.close();
+  }
+
+  /**
+   * @return the next record, or null at the end
+   */
+  private static Record readRecord(DataInputStream in, int keyIndex) throws IOException {
+    if (!in.readBoolean())
+      return null;
+    return readFields(in, keyIndex);
+  }
+
+  private static Record readFields(DataInputStream in, int keyIndex) throws IOException {
+    int lineNo = in.readInt();
+    String[] values = new String[in.readInt()];
+    for (int i = 0; i < values.length; i++)
+      values[i] = readString(in);
+    return new Record(values[keyIndex], lineNo, values);
+  }
+
+  /**
+   * @return the file, read as far as its header
+   */
+  private static Input open(File file, String keyName) throws IOException {
+    CsvReader reader = new CsvReader(file);
+    try {
+      List<String> columnNames = new ArrayList<String>(reader.getColumnNames());
+      int keyIndex = keyName == null ? 0 : columnNames.indexOf(keyName);
+      if (keyIndex == -1 || keyIndex >= columnNames.size())
+        throw new CsvColumnNotFoundException("Column " + keyName + " not found in " + file);
+      return new Input(file, columnNames, keyIndex);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * @return whether the file's keys are in order, reading no further than the first which is not
+   */
+  private boolean isSorted(Input input) throws IOException {
+    SortedReader reader = new SortedReader(input);
+    try {
+      while (reader.next() != null)
+        ;
+      return true;
+    } catch (CsvKeyOrderException e) {
+      return false;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static Record newRecord(CsvRow row, int keyIndex) {
+    String[] values = new String[row.getColumnNames().size()];
+    for (int i = 0; i < values.length; i++)
+      values[i] = row.get(i);
+    return new Record(values[keyIndex], row.getLineNo(), values);
+  }
+
+  /**
+   * Read the file into runs sorted by key, merging them until there are few enough to read back together.
+   */
+  private void sort(Input input, ArrayList<File> temporaryFiles) throws IOException {
+    CsvReader reader = new CsvReader(input.file);
+    try {
+      ArrayList<Record> records = new ArrayList<Record>();
+      long bytes = 0;
+      for (CsvRow row : reader) {
+        Record record = newRecord(row, input.keyIndex);
+        records.add(record);
+        bytes += record.estimateBytes();
+        if (bytes > memoryBudget / 2) {
+          input.runs.add(writeRun(records, temporaryFiles));
+          records.clear();
+          bytes = 0;
+        }
+      }
+      if (!records.isEmpty() || input.runs.isEmpty())
+        input.runs.add(writeRun(records, temporaryFiles));
+      reduce(input, temporaryFiles);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private File writeRun(ArrayList<Record> records, ArrayList<File> temporaryFiles) throws IOException {
+    Collections.sort(records, recordOrder);
+    File run = newRunFile(temporaryFiles);
+    DataOutputStream out = openForWriting(run);
+    for (Record record : records)
+      writeRecord(out, record);
+    writeEnd(out);
+    return run;
+  }
+
+  /**
+   * Merge groups of runs until there are no more than can be read at once, whilst the other file's are too, within
+   * the budget.
+   */
+  private void reduce(Input input, ArrayList<File> temporaryFiles) throws IOException {
+    int fanIn = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 2 / RUN_BUFFER_SIZE);
+    while (input.runs.size() > fanIn) {
+      ArrayList<File> merged = new ArrayList<File>();
+      for (int from = 0; from < input.runs.size(); from += fanIn) {
+        List<File> group = input.runs.subList(from, Math.min(from + fanIn, input.runs.size()));
+        if (group.size() == 1)
+          merged.add(group.get(0));
+        else {
+          File run = newRunFile(temporaryFiles);
+          DataOutputStream out = openForWriting(run);
+          Merger merger = new Merger(group, input.keyIndex);
+          try {
+            Record record;
+            while ((record = merger.next()) != null)
+              writeRecord(out, record);
+          } finally {
+            merger.close();
+          }
+          writeEnd(out);
+          for (File file : group)
+            file.delete();
+          merged.add(run);
+        }
+      }
+      input.runs = merged;
+    }
+  }
+
+  /**
+   * A record read from a file, by file position.
+   */
+  private static final class Record {
+    private String key;
+    private int lineNo;
+    private String[] values;
+
+    Record(String key, int lineNo, String[] values) {
+      super();
+      this.key = key;
+      this.lineNo = lineNo;
+      this.values = values;
+    }
+
+    /**
+     * @return a rough measure of the heap the record takes
+     */
+    long estimateBytes() {
+      long bytes = 32 + 16 + 8L * values.length;
+      for (String value : values)
+        bytes += 40 + 2L * value.length();
+      return bytes;
+    }
+  }
+
+  /**
+   * A file being unified, with its runs, if it has been sorted.
+   */
+  private static final class Input {
+    private File file;
+    private String name;
+    private List<String> columnNames;
+    private int keyIndex;
+    private ArrayList<File> runs = new ArrayList<File>();
+
+    Input(File file, List<String> columnNames, int keyIndex) {
+      super();
+      this.file = file;
+      this.name = CsvTable.removeExtension(file.getName());
+      this.columnNames = columnNames;
+      this.keyIndex = keyIndex;
+    }
+
+    CsvColumn getColumn(int index) {
+      return new CsvColumn(columnNames.get(index), index == keyIndex);
+    }
+  }
+
+  /**
+   * Records in key order.
+   */
+  private interface Source extends Closeable {
+    /**
+     * @return the next record, or null if there are no more
+     */
+    Record next() throws IOException;
+  }
+
+  /**
+   * The records of a file which is in key order, read straight from it.
+   */
+  private final class SortedReader implements Source {
+    private CsvReader reader;
+    private int keyIndex;
+    private Record previous;
+
+    SortedReader(Input input) throws IOException {
+      super();
+      this.reader = new CsvReader(input.file);
+      this.keyIndex = input.keyIndex;
+    }
+
+    /**
+     * @throws CsvKeyOrderException
+     *           if the key of the record comes before that of the one before it
+     */
+    @Override
+    public Record next() {
+      if (!reader.hasNext())
+        return null;
+      Record record = newRecord(reader.next(), keyIndex);
+      if (previous != null && compareKeys(record, previous) < 0)
+        throw new CsvKeyOrderException(record.lineNo, record.key, previous.key);
+      previous = record;
+      return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /**
+   * A run being read, with its next record.
+   */
+  private static final class Run {
+    private DataInputStream in;
+    private int keyIndex;
+    private Record head;
+
+    Run(File file, int keyIndex) throws IOException {
+      super();
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_BUFFER_SIZE));
+      this.keyIndex = keyIndex;
+      advance();
+    }
+
+    void advance() throws IOException {
+      head = readRecord(in, keyIndex);
+    }
+  }
+
+  /**
+   * The records of several runs, merged in key order.
+   */
+  private final class Merger implements Source {
+    private PriorityQueue<Run> queue;
+
+    Merger(List<File> runs, int keyIndex) throws IOException {
+      super();
+      queue = new PriorityQueue<Run>(Math.max(1, runs.size()), new Comparator<Run>() {
+        @Override
+        public int compare(Run one, Run other) {
+          return recordOrder.compare(one.head, other.head);
+        }
+      });
+      try {
+        for (File file : runs) {
+          Run run = new Run(file, keyIndex);
+          if (run.head == null)
+            run.in.close();
+          else
+            queue.add(run);
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return the record with the lowest key, or null if there are no more
+     */
+    @Override
+    public Record next() throws IOException {
+      Run run = queue.poll();
+      if (run == null)
+        return null;
+      Record record = run.head;
+      run.advance();
+      if (run.head == null)
+        run.in.close();
+      else
+        queue.add(run);
+      return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (Run run : queue)
+        run.in.close();
+      queue.clear();
+    }
+  }
+
+  /**
+   * The two files read together in key order, and unified.
+   */
+  private final class Join {
+    private Input current;
+    private Input candidate;
+    private boolean unifyWithEmpty;
+
+    /** The columns of the current file, then those only the candidate has. */
+    private ArrayList<String> columnNames;
+    /** The index in columnNames of each of the candidate's columns. */
+    private int[] candidateIndexes;
+    /** The candidate's index of each of columnNames, or -1. */
+    private int[] fromCandidate;
+
+    /** The line of the first candidate record to be unified with a current one, after which columns are added. */
+    private int firstUnifiedLineNo = Integer.MAX_VALUE;
+    private CsvException error;
+    private int errorLineNo = Integer.MAX_VALUE;
+
+    Join(Input current, Input candidate, boolean unifyWithEmpty) {
+      super();
+      this.current = current;
+      this.candidate = candidate;
+      this.unifyWithEmpty = unifyWithEmpty;
+      columnNames = new ArrayList<String>(current.columnNames);
+      HashMap<String, Integer> indexes = new HashMap<String, Integer>();
+      for (int i = 0; i < columnNames.size(); i++)
+        indexes.put(columnNames.get(i), i);
+      candidateIndexes = new int[candidate.columnNames.size()];
+      for (int i = 0; i < candidateIndexes.length; i++) {
+        String name = candidate.columnNames.get(i);
+        Integer index = indexes.get(name);
+        if (index == null) {
+          index = columnNames.size();
+          columnNames.add(name);
+          indexes.put(name, index);
+        }
+        candidateIndexes[i] = index;
+      }
+      fromCandidate = new int[columnNames.size()];
+      Arrays.fill(fromCandidate, -1);
+      for (int i = 0; i < candidateIndexes.length; i++)
+        fromCandidate[candidateIndexes[i]] = i;
+    }
+
+    void run(ArrayList<File> temporaryFiles, Writer output) throws IOException {
+      File rows = newRunFile(temporaryFiles);
+      DataOutputStream out = openForWriting(rows);
+      Source currentRecords = open(current);
+      Source candidateRecords = null;
+      try {
+        candidateRecords = open(candidate);
+        Record currentRecord = next(currentRecords, null);
+        Record candidateRecord = next(candidateRecords, null);
+        while (currentRecord != null || candidateRecord != null) {
+          int order = currentRecord == null ? 1 : candidateRecord == null ? -1
+              : compareKeys(currentRecord, candidateRecord);
+          if (order < 0) {
+            writeRow(out, CURRENT, currentRecord.lineNo, extended(currentRecord));
+            currentRecord = next(currentRecords, currentRecord);
+          } else if (order == 0) {
+            firstUnifiedLineNo = Math.min(firstUnifiedLineNo, candidateRecord.lineNo);
+            String[] values = unify(currentRecord, candidateRecord);
+            if (values != null)
+              writeRow(out, UNIFIED, currentRecord.lineNo, values);
+            currentRecord = next(currentRecords, currentRecord);
+            candidateRecord = next(candidateRecords, candidateRecord);
+          } else {
+            notFound(out, candidateRecord);
+            candidateRecord = next(candidateRecords, candidateRecord);
+          }
+        }
+      } finally {
+        currentRecords.close();
+        if (candidateRecords != null)
+          candidateRecords.close();
+        writeEnd(out);
+      }
+      if (error != null)
+        throw error;
+      write(rows, output);
+    }
+
+    /**
+     * @return the next record, checking that its key differs from the previous one's
+     * @throws CsvDuplicateKeyException
+     *           if it does not
+     */
+    private Record next(Source records, Record previous) throws IOException {
+      Record record = records.next();
+      if (record != null && previous != null && record.key.equals(previous.key))
+        throw new CsvDuplicateKeyException(record.lineNo, record.key);
+      return record;
+    }
+
+    private void fail(int lineNo, CsvException e) {
+      if (lineNo < errorLineNo) {
+        error = e;
+        errorLineNo = lineNo;
+      }
+    }
+
+    /**
+     * @return the current record's values, with the candidate's other columns empty
+     */
+    private String[] extended(Record record) {
+      String[] values = Arrays.copyOf(record.values, columnNames.size());
+      Arrays.fill(values, record.values.length, values.length, "");
+      return values;
+    }
+
+    /**
+     * @return the values of the current record unified with the candidate, as by {@link CsvRecord#unify}, or null if
+     *         they conflict
+     */
+    private String[] unify(Record currentRecord, Record candidateRecord) {
+      String[] values = extended(currentRecord);
+      int currentColumns = current.columnNames.size();
+      for (int i = 0; i < candidateIndexes.length; i++) {
+        int index = candidateIndexes[i];
+        String candidateValue = candidateRecord.values[i];
+        if (index < currentColumns) {
+          if (values[index].equals("") && unifyWithEmpty)
+            values[index] = candidateValue;
+          else if (!values[index].equals(candidateValue)) {
+            fail(candidateRecord.lineNo, new CsvRecordUnificationException(candidate.name, candidateRecord.lineNo,
+                new CsvField(current.getColumn(index), values[index]),
+                new CsvField(candidate.getColumn(i), candidateValue)));
+            return null;
+          }
+        } else if (unifyWithEmpty)
+          values[index] = candidateValue;
+      }
+      return values;
+    }
+
+    /**
+     * Deal with a candidate record whose key is not in the current file, as CsvTable.unify does.
+     */
+    private void notFound(DataOutputStream out, Record candidateRecord) throws IOException {
+      String message = "Record not found in " + current.name
+          + " with key equal " + candidateRecord.key
+          + " from line " + candidateRecord.lineNo + " in file "
+          + candidate.name;
+      switch (unificationOption) {
+      case THROW:
+        fail(candidateRecord.lineNo, new CsvRecordNotFoundException(message));
+        break;
+      case LOG:
+        System.err.println(message);
+        break;
+      case DEFAULT:
+        String[] values = new String[columnNames.size()];
+        for (int i = 0; i < values.length; i++)
+          values[i] = fromCandidate[i] == -1 ? "" : candidateRecord.values[fromCandidate[i]];
+        writeRow(out, DEFAULTED, candidateRecord.lineNo, values);
+        break;
+      }
+    }
+
+    private void writeRow(DataOutputStream out, byte kind, int lineNo, String[] values) throws IOException {
+      out.writeBoolean(true);
+      out.writeByte(kind);
+      writeFields(out, new Record(null, lineNo, values));
+    }
+
+    /**
+     * Write the header and rows, with the candidate's other columns only if they were added by unifying a record;
+     * a record defaulted before then reads them as empty.
+     */
+    private void write(File rows, Writer output) throws IOException {
+      int currentColumns = current.columnNames.size();
+      int columns = unifyWithEmpty && firstUnifiedLineNo != Integer.MAX_VALUE ? columnNames.size()
+          : currentColumns;
+      for (int i = 0; i < columns; i++) {
+        output.write(columnNames.get(i));
+        output.write(',');
+      }
+      output.write('\n');
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(rows), RUN_BUFFER_SIZE));
+      try {
+        while (in.readBoolean()) {
+          byte kind = in.readByte();
+          Record row = readFields(in, 0);
+          boolean defaultedBefore = kind == DEFAULTED && row.lineNo < firstUnifiedLineNo;
+          for (int i = 0; i < columns; i++) {
+            if (i > 0)
+              output.write(',');
+            output.write(defaultedBefore && i >= currentColumns ? "" : row.values[i]);
+          }
+          output.write(",\n");
+        }
+      } finally {
+        in.close();
+      }
+    }
+  }
+}
@@ -27,7 +27,7 @@ public class CsvField implements Cloneable {
 
   @Override
   public String toString() {
-    return "\"" + column.getName() + "\": \"" + value + "\"";
+    return "\"" + column.getName() + "\": \"" + getValue() + "\"";
   }
 
   public CsvColumn getColumn() {
@@ -42,12 +42,27 @@ public class CsvField implements Cloneable {
     this.value = value;
   }
 
+  /**
+   * @return whether the value is empty, which a field held in a store may tell without decoding it
+   */
+  boolean hasEmptyValue() {
+    return getValue().length() == 0;
+  }
+
+  /**
+   * @return whether this field's value equals the other's, which fields held in a store may tell without decoding
+   *         either
+   */
+  boolean valueEquals(CsvField other) {
+    return getValue().equals(other.getValue());
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
     result = prime * result + column.hashCode();
-    result = prime * result + value.hashCode();
+    result = prime * result + getValue().hashCode();
     return result;
   }
 
@@ -66,7 +81,7 @@ public class CsvField implements Cloneable {
     if (!column.equals(other.column)) {
       return false;
     }
-    if (!value.equals(other.value)) {
+    if (!getValue().equals(other.getValue())) {
       return false;
     }
     return true;
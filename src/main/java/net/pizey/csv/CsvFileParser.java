@@ -2,146 +2,297 @@ package net.pizey.csv;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.NoSuchElementException;
 
 /**
  * A utility for tokenising a file made up of comma-separated variables. We allow for fields having returns in them.
- * 
+ *
  * <PRE>
  *   foo, bar om,,"baz, ,oof",xyz,   ->
  *     "foo", " bar om", "", "baz, , oof", "xyz", ""
- * 
+ *
  *   foo, "bar
  *   bar
  *   bar", baz ->
- *   "foo", "bar\u0015bar\u0015bar", "baz"
+ *   "foo", "bar\nbar\nbar", "baz"
  * </PRE>
- * 
+ *
  * Each record (which is usually a line, unless some fields have a line break in them) is accessed one at a time by
- * calling <code>nextRecord()</code>. Within each record <code>recordHasMoreFields()</code> and <code>nextField()</code>
- * can be used like an Enumeration to iterate through the fields.
- * 
+ * calling <code>hasNextRecord()</code>. Within each record <code>recordHasMoreFields()</code> and
+ * <code>nextField()</code> can be used like an Enumeration to iterate through the fields.
+ * <p>
+ * The input is scanned once, as a state machine, over a reusable character buffer: a field value is only copied when
+ * it is returned, and a quoted field spanning several lines is accumulated in place rather than by joining lines. A
+ * quote opens a quoted field only at the start of a field and closes it only when followed by a comma or the end of a
+ * line; any other quote is part of the value. Line breaks within quoted fields are returned as <code>\n</code>.
+ *
  * @author mylesc, based heavily on original CSVStringEnumeration by williamc
  */
 
-public class CsvFileParser {
+public class CsvFileParser implements CsvParser {
 
-  private BufferedReader reader = null;
+  static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
-  private int lineNo = 0; // The first line will be line '1'
-  private String line = "";
-  private boolean emptyLastField = false;
+  private Reader reader = null;
+
+  private char[] buffer;
+  /** Index of the next character to be scanned. */
   private int position = 0;
+  /** Index after the last valid character in the buffer. */
+  private int limit = 0;
+  /** Start of the field being accumulated, which must survive a refill, or -1. */
+  private int mark = -1;
+  /** Where the next character of a quoted field is written back to, always at or behind position. */
+  private int out = 0;
+  /** Where a kept field is added instead of being returned, or null. */
+  private CsvRawFields target = null;
+
+  private int lineNo = 0; // The first line will be line '1'
+  private boolean inRecord = false;
+  private boolean moreFields = false;
 
   /**
    * Constructor.
-   * 
+   *
    * @param reader
    *          file reader
    */
   public CsvFileParser(BufferedReader reader) {
+    this((Reader) reader);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param reader
+   *          any reader, there is no need to buffer it
+   */
+  public CsvFileParser(Reader reader) {
+    this(reader, DEFAULT_BUFFER_SIZE);
+  }
+
+  CsvFileParser(Reader reader, int bufferSize) {
     this.reader = reader;
+    this.buffer = new char[bufferSize];
   }
 
   /**
    * Return the current line number.
-   * 
+   *
    * @return the current lineNo
    */
+  @Override
   public int getLineNo() {
     return lineNo;
   }
 
   /**
    * Are there any more tokens to come?
-   * 
+   *
    * @return whether there are more fields
    */
+  @Override
   public boolean recordHasMoreFields() {
-    return emptyLastField || position < line.length();
+    return moreFields;
   }
 
   /**
    * @return the next token as a String
    */
+  @Override
   public String nextField() throws IOException {
-    return nextToken(false);
+    if (!moreFields)
+      throw new NoSuchElementException("Line " + lineNo
+          + ": no more fields in record (eof before end of token)");
+    return scanField(true);
+  }
+
+  @Override
+  public void skipField() throws IOException {
+    if (!moreFields)
+      throw new NoSuchElementException("Line " + lineNo
+          + ": no more fields in record (eof before end of token)");
+    scanField(false);
+  }
+
+  @Override
+  public void nextRawField(CsvRawFields fields) throws IOException {
+    if (!moreFields)
+      throw new NoSuchElementException("Line " + lineNo
+          + ": no more fields in record (eof before end of token)");
+    target = fields;
+    try {
+      scanField(true);
+    } finally {
+      target = null;
+    }
   }
 
   /**
-   * @return the next token as a String
+   * Move on to the next record, discarding any unread fields of the current one.
+   *
+   * @return whether there is another record
    */
-  private String nextToken(boolean inUnclosedQuotes) throws IOException {
-
-    if (emptyLastField) {
-      emptyLastField = false;
-      return "";
+  @Override
+  public boolean hasNextRecord() throws IOException {
+    if (inRecord) {
+      while (moreFields)
+        scanField(false);
+      skipLineEnd();
+    }
+    if (!available()) {
+      inRecord = false;
+      return false;
     }
+    inRecord = true;
+    lineNo++;
+    moreFields = !isLineEnd(buffer[position]);
+    return true;
+  }
+
+  /**
+   * Close the reader.
+   */
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
 
-    if (position >= line.length())
-      throw new NoSuchElementException("Line " + lineNo + ": Position "
-          + position + ", line length " + line.length() + " (eof before end of token)");
+  /**
+   * Scan one field, leaving the position after its separating comma or at the line end which terminates it.
+   *
+   * @param keep
+   *          whether to return the value or just pass over it
+   * @return the value, or null if it was not kept or was added to the target
+   */
+  private String scanField(boolean keep) throws IOException {
+    if (!available()) {
+      // A comma was the last character of the input
+      moreFields = false;
+      mark = position;
+      return endField(keep, position);
+    }
+    if (buffer[position] == '"') {
+      position++;
+      return scanQuoted(keep);
+    }
+    return scanPlain(keep);
+  }
 
-    if (line.charAt(position) == '"') {
-      ++position;
-      inUnclosedQuotes = true;
+  private String scanPlain(boolean keep) throws IOException {
+    mark = keep ? position : -1;
+    while (true) {
+      if (!available()) {
+        moreFields = false;
+        return endField(keep, position);
+      }
+      char c = buffer[position];
+      if (c == ',') {
+        String value = endField(keep, position);
+        position++;
+        moreFields = true;
+        return value;
+      }
+      if (isLineEnd(c)) {
+        moreFields = false;
+        return endField(keep, position);
+      }
+      position++;
     }
-    if (inUnclosedQuotes ) {
-
-      // we need to allow for quotes inside quoted fields, so now test for ",
-      int closingQuotePosition = line.indexOf("\",", position);
-      // if it is not there, we are (hopefully) at the end of a line
-      if (closingQuotePosition == -1) {
-        if (line.indexOf('"', position) == line.length() - 1)
-          closingQuotePosition = line.length() - 1;
-
-        // If we don't find the end quote try reading in more lines
-        // since fields can have \n in them
-        else {
-          String sofar = line.substring(position, line.length());
-          if (!hasNextRecord())
-            throw new IllegalArgumentException("Unclosed quoted field on line "
-                + lineNo);
-          return sofar + "\n" + nextToken(inUnclosedQuotes);
+  }
+
+  private String scanQuoted(boolean keep) throws IOException {
+    mark = keep ? position : -1;
+    out = position;
+    while (true) {
+      if (!available())
+        throw new IllegalArgumentException("Unclosed quoted field on line "
+            + lineNo);
+      char c = buffer[position++];
+      if (c == '"') {
+        if (!available()) {
+          moreFields = false;
+          return endField(keep, out);
+        }
+        char next = buffer[position];
+        if (next == ',') {
+          String value = endField(keep, out);
+          position++;
+          moreFields = true;
+          return value;
+        }
+        if (isLineEnd(next)) {
+          moreFields = false;
+          return endField(keep, out);
         }
+      } else if (isLineEnd(c)) {
+        if (c == '\r' && available() && buffer[position] == '\n')
+          position++;
+        lineNo++;
+        c = '\n';
       }
+      if (keep)
+        buffer[out++] = c;
+    }
+  }
 
-      String it = line.substring(position, closingQuotePosition);
-
-      if (closingQuotePosition + 1 < line.length()) { // we found a comma
-        if (closingQuotePosition + 1 == line.length() - 1)
-          emptyLastField = true;
-      }
-      position = closingQuotePosition + 2;
-      return it;
-    } else {
-      int q = line.indexOf(',', position);
-      if (q == -1) {
-        String it = line.substring(position);
-        position = line.length();
-        return it;
-      } else {
-        String it = line.substring(position, q);
-        if (q == line.length() - 1)
-          emptyLastField = true;
-        position = q + 1;
-        return it;
-      }
+  private String endField(boolean keep, int end) {
+    String value = null;
+    if (keep) {
+      if (target != null)
+        target.add(buffer, mark, end - mark);
+      else
+        value = new String(buffer, mark, end - mark);
     }
+    mark = -1;
+    return value;
+  }
+
+  private void skipLineEnd() throws IOException {
+    if (available() && buffer[position] == '\r')
+      position++;
+    if (available() && buffer[position] == '\n')
+      position++;
+  }
+
+  private static boolean isLineEnd(char c) {
+    return c == '\n' || c == '\r';
   }
 
   /**
-   * @return whether there is another line
+   * @return whether there is a character at position, refilling the buffer if need be
    */
-  public boolean hasNextRecord() throws IOException {
-    line = reader.readLine();
-    // This should be false anyway if we're called from nextToken()
-    emptyLastField = false;
-    position = 0;
-    if (line == null) {
-      return false;
+  private boolean available() throws IOException {
+    return position < limit || fill();
+  }
+
+  /**
+   * Refill the buffer, keeping any part of a field being accumulated, and growing the buffer if that field fills it.
+   *
+   * @return false at end of input
+   */
+  private boolean fill() throws IOException {
+    int keepFrom = mark >= 0 ? mark : position;
+    if (keepFrom > 0) {
+      System.arraycopy(buffer, keepFrom, buffer, 0, limit - keepFrom);
+      limit -= keepFrom;
+      position -= keepFrom;
+      out -= keepFrom;
+      if (mark >= 0)
+        mark = 0;
+    } else if (limit == buffer.length) {
+      char[] bigger = new char[buffer.length * 2];
+      System.arraycopy(buffer, 0, bigger, 0, limit);
+      buffer = bigger;
     }
-    lineNo++;
+    int read;
+    do {
+      read = reader.read(buffer, limit, buffer.length - limit);
+    } while (read == 0);
+    if (read < 0)
+      return false;
+    limit += read;
     return true;
   }
 
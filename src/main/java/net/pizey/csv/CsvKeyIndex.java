@@ -0,0 +1,710 @@
+package net.pizey.csv;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The keys of a table, in the order they were added, each with its record, with constant time lookup, addition and
+ * removal.
+ * <p>
+ * The keys are held in an array in the order they were added, and found through an open addressed hash table of
+ * their positions in it. A removed key leaves a gap in the array and a tombstone in the hash table, both of which are
+ * cleared away once they make up half of either, so each operation takes constant amortised time.
+ * <p>
+ * Both arrays are held in chunks, which a copy of the index shares with the original until either writes to a chunk,
+ * when it copies just that chunk. The records are held in chunks too, which a copy made for a table shares with the
+ * original a block of 64 at a time: until the copy first reads or writes a record of the block, when it takes a clone
+ * of each of the block's records, sharing their fields, or until the original is about to change one of the block's
+ * records, or to drop or move them, when each copy still sharing the block takes its clones first. So a record read
+ * from one table can never change the other, the original's records never change identity, and copying an index
+ * costs nothing for each key until the copy touches the block it is in.
+ * <p>
+ * While every key is an integer written as {@link Long#toString(long)} would write it, as primary keys nearly always
+ * are, the keys are held as longs, so a probe compares numbers in the array rather than following each key to its
+ * characters. The first key which is not a number turns them all into Strings for good.
+ */
+final class CsvKeyIndex extends CsvKeyList {
+
+  private static final int CHUNK_BITS = 10;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /** Records are cloned for a copy a block at a time, smaller than a chunk, as a record is far larger than a key. */
+  private static final int BLOCK_BITS = 6;
+  private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+  private static final int BLOCKS_PER_CHUNK = 1 << (CHUNK_BITS - BLOCK_BITS);
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** A slot which has never been used, ending a probe. */
+  private static final int FREE = 0;
+  /** A slot whose key has been removed, passed over by a probe. */
+  private static final int DELETED = -1;
+
+  /** Returned by {@link #toNumber(String)} for a key which is not a number. */
+  static final long NOT_A_NUMBER = Long.MIN_VALUE;
+
+  /** Marks a removed key among numbers, so the key for it is never held as a number. */
+  private static final long GAP = NOT_A_NUMBER;
+
+  /** The keys in the order they were added, by chunk, with null where one has been removed, or null if numbers. */
+  private String[][] keys;
+  /** The keys as numbers, by chunk, with GAP where one has been removed, or null if Strings. */
+  private long[][] numbers;
+  /** The record of each key, by chunk, null if it has none. */
+  private CsvRecord[][] records;
+  /** Whether each chunk of records is this index's own array, rather than the one of the index copied. */
+  private boolean[] ownRecordChunks;
+  /** Whether each block of records holds this index's table's records, rather than those of the index copied. */
+  private boolean[] ownRecords;
+  /** Whether each block of records may still be shared by a copy of this index. */
+  private boolean[] sharedRecords;
+  /** Whether any block of records may still be shared. */
+  private boolean recordsShared;
+  /** The copies of this index, which may share its chunks of records. */
+  private List<WeakReference<CsvKeyIndex>> borrowers;
+  /** The table the records are for, or null for the first index of a table, which only ever holds its own. */
+  private CsvTable table;
+  /** Whether each chunk of keys is this index's own, rather than shared with a copy. */
+  private boolean[] ownPositions;
+  /** The number of positions in the chunks, less than a chunk or a whole number of chunks. */
+  private int capacity;
+  /** The number of positions used, including gaps. */
+  private int end;
+  private int size;
+
+  /** One more than the position of the key hashed to each slot, or FREE or DELETED, by chunk. */
+  private int[][] slots;
+  private boolean[] ownSlots;
+  /** The number of slots, a power of two. */
+  private int slotCount;
+  private int deletedSlots;
+
+  CsvKeyIndex() {
+    super();
+    removeAllKeys();
+  }
+
+  /**
+   * A copy for the table, sharing the chunks of keys of the other index until either writes to them, and its blocks of
+   * records until the copy touches them or the other is about to change them.
+   */
+  CsvKeyIndex(CsvKeyIndex other, CsvTable table) {
+    super();
+    this.table = table;
+    synchronized (other) {
+      keys = other.keys == null ? null : other.keys.clone();
+      numbers = other.numbers == null ? null : other.numbers.clone();
+      records = other.records.clone();
+      ownRecordChunks = new boolean[records.length];
+      ownRecords = new boolean[other.ownRecords.length];
+      sharedRecords = new boolean[ownRecords.length];
+      other.lend(this);
+      ownPositions = new boolean[records.length];
+      Arrays.fill(other.ownPositions, false);
+      capacity = other.capacity;
+      end = other.end;
+      size = other.size;
+      slots = other.slots.clone();
+      ownSlots = new boolean[slots.length];
+      Arrays.fill(other.ownSlots, false);
+      slotCount = other.slotCount;
+      deletedSlots = other.deletedSlots;
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int hash(long number) {
+    return (int) ((number * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  /**
+   * @return the key as a number, or NOT_A_NUMBER if it is not one written as {@link Long#toString(long)} would write it
+   */
+  static long toNumber(String key) {
+    int length = key.length();
+    int start = length > 0 && key.charAt(0) == '-' ? 1 : 0;
+    if (length == start || length - start > 19 || key.charAt(start) == '0' && length > start + 1)
+      return NOT_A_NUMBER;
+    long number = 0;
+    for (int i = start; i < length; i++) {
+      int digit = key.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || number > (Long.MAX_VALUE - digit) / 10)
+        return NOT_A_NUMBER;
+      number = number * 10 + digit;
+    }
+    if (start == 1)
+      return number == 0 ? NOT_A_NUMBER : -number;
+    return number;
+  }
+
+  @Override
+  String keyAt(int position) {
+    if (numbers == null)
+      return keys[position >>> CHUNK_BITS][position & CHUNK_MASK];
+    long number = numberAt(position);
+    return number == GAP ? null : Long.toString(number);
+  }
+
+  private long numberAt(int position) {
+    return numbers[position >>> CHUNK_BITS][position & CHUNK_MASK];
+  }
+
+  private boolean isGap(int position) {
+    return numbers == null ? keyAt(position) == null : numberAt(position) == GAP;
+  }
+
+  private CsvRecord recordAt(int position) {
+    int block = position >>> BLOCK_BITS;
+    if (!ownRecords[block])
+      ownRecords(block);
+    return records[position >>> CHUNK_BITS][position & CHUNK_MASK];
+  }
+
+  /**
+   * Note that a copy now shares every block of records.
+   */
+  private void lend(CsvKeyIndex borrower) {
+    if (borrowers == null)
+      borrowers = new ArrayList<WeakReference<CsvKeyIndex>>();
+    for (Iterator<WeakReference<CsvKeyIndex>> it = borrowers.iterator(); it.hasNext();)
+      if (it.next().get() == null)
+        it.remove();
+    borrowers.add(new WeakReference<CsvKeyIndex>(borrower));
+    Arrays.fill(sharedRecords, true);
+    recordsShared = true;
+  }
+
+  /**
+   * Replace the block's records with clones for this index's table, if they are still those of the index copied.
+   */
+  private synchronized void ownRecords(int block) {
+    if (ownRecords[block])
+      return;
+    releaseRecords(block);
+    int chunk = block / BLOCKS_PER_CHUNK;
+    if (!ownRecordChunks[chunk]) {
+      records[chunk] = records[chunk].clone();
+      ownRecordChunks[chunk] = true;
+    }
+    CsvRecord[] chunkRecords = records[chunk];
+    int start = (block << BLOCK_BITS) & CHUNK_MASK;
+    int stop = Math.min(start + BLOCK_SIZE, chunkRecords.length);
+    for (int i = start; i < stop; i++)
+      if (chunkRecords[i] != null)
+        chunkRecords[i] = chunkRecords[i].clone(table);
+    ownRecords[block] = true;
+  }
+
+  /**
+   * Have every copy still sharing the block's records take its own, before they are changed, dropped or moved.
+   */
+  private synchronized void releaseRecords(int block) {
+    if (!sharedRecords[block])
+      return;
+    sharedRecords[block] = false;
+    for (WeakReference<CsvKeyIndex> reference : borrowers) {
+      CsvKeyIndex borrower = reference.get();
+      if (borrower != null && block < borrower.ownRecords.length)
+        borrower.ownRecords(block);
+    }
+  }
+
+  /**
+   * Have every copy still sharing any of the records take its own.
+   */
+  void releaseRecords() {
+    if (!recordsShared)
+      return;
+    for (int block = 0; block < sharedRecords.length; block++)
+      releaseRecords(block);
+    recordsShared = false;
+  }
+
+  /**
+   * @return whether a copy may still share any of the records
+   */
+  boolean sharesRecords() {
+    return recordsShared;
+  }
+
+  /**
+   * Have every copy still sharing the record of the key take its own, as the record is about to change.
+   */
+  void recordChanging(String key, CsvRecord record) {
+    if (size == 0)
+      return;
+    int found = find(key);
+    if (found < 0)
+      return;
+    int position = slotAt(found) - 1;
+    if (records[position >>> CHUNK_BITS][position & CHUNK_MASK] == record)
+      releaseRecords(position >>> BLOCK_BITS);
+  }
+
+  /**
+   * Make every block of records this index's own, and none shared, before they are dropped or moved.
+   */
+  private void ownAllRecords() {
+    releaseRecords();
+    for (int block = 0; block < ownRecords.length; block++)
+      if (!ownRecords[block])
+        ownRecords(block);
+  }
+
+  private int slotAt(int slot) {
+    return slots[slot >>> CHUNK_BITS][slot & CHUNK_MASK];
+  }
+
+  /**
+   * @return the chunk of the position, first copying it if it is shared
+   */
+  private int ownChunk(int position) {
+    int chunk = position >>> CHUNK_BITS;
+    if (!ownPositions[chunk]) {
+      if (numbers == null)
+        keys[chunk] = keys[chunk].clone();
+      else
+        numbers[chunk] = numbers[chunk].clone();
+      ownPositions[chunk] = true;
+    }
+    return chunk;
+  }
+
+  /**
+   * Set the key at the position, where the key is a number if numbers are held, or null for a gap.
+   */
+  private void setPosition(int position, String key, long number, CsvRecord record) {
+    int chunk = ownChunk(position);
+    if (numbers == null)
+      keys[chunk][position & CHUNK_MASK] = key;
+    else
+      numbers[chunk][position & CHUNK_MASK] = key == null ? GAP : number;
+    setRecord(position, record);
+  }
+
+  private void setRecord(int position, CsvRecord record) {
+    int block = position >>> BLOCK_BITS;
+    releaseRecords(block);
+    if (!ownRecords[block])
+      ownRecords(block);
+    records[position >>> CHUNK_BITS][position & CHUNK_MASK] = record;
+  }
+
+  private void setSlot(int slot, int value) {
+    int chunk = slot >>> CHUNK_BITS;
+    if (!ownSlots[chunk]) {
+      slots[chunk] = slots[chunk].clone();
+      ownSlots[chunk] = true;
+    }
+    slots[chunk][slot & CHUNK_MASK] = value;
+  }
+
+  /**
+   * Start again with empty positions, all this index's own, holding numbers unless keys are already Strings.
+   */
+  private void newPositions(int count) {
+    int chunks = Math.max(1, (count + CHUNK_MASK) >>> CHUNK_BITS);
+    int length = Math.min(count, CHUNK_SIZE);
+    if (keys != null)
+      keys = new String[chunks][length];
+    else {
+      numbers = new long[chunks][length];
+      for (long[] chunk : numbers)
+        Arrays.fill(chunk, GAP);
+    }
+    records = new CsvRecord[chunks][length];
+    ownRecordChunks = new boolean[chunks];
+    Arrays.fill(ownRecordChunks, true);
+    ownRecords = new boolean[chunks * BLOCKS_PER_CHUNK];
+    Arrays.fill(ownRecords, true);
+    sharedRecords = new boolean[ownRecords.length];
+    ownPositions = new boolean[chunks];
+    Arrays.fill(ownPositions, true);
+    capacity = chunks == 1 ? length : chunks * CHUNK_SIZE;
+  }
+
+  /**
+   * Double the positions up to a chunk, then add a chunk at a time.
+   */
+  private void growPositions() {
+    if (capacity < CHUNK_SIZE) {
+      int oldCapacity = capacity;
+      capacity = Math.min(capacity * 2, CHUNK_SIZE);
+      if (numbers == null)
+        keys[0] = Arrays.copyOf(keys[0], capacity);
+      else {
+        numbers[0] = Arrays.copyOf(numbers[0], capacity);
+        Arrays.fill(numbers[0], oldCapacity, capacity, GAP);
+      }
+      records[0] = Arrays.copyOf(records[0], capacity);
+      ownRecordChunks[0] = true;
+      ownPositions[0] = true;
+    } else {
+      int chunks = records.length + 1;
+      if (numbers == null) {
+        keys = Arrays.copyOf(keys, chunks);
+        keys[chunks - 1] = new String[CHUNK_SIZE];
+      } else {
+        numbers = Arrays.copyOf(numbers, chunks);
+        numbers[chunks - 1] = new long[CHUNK_SIZE];
+        Arrays.fill(numbers[chunks - 1], GAP);
+      }
+      records = Arrays.copyOf(records, chunks);
+      records[chunks - 1] = new CsvRecord[CHUNK_SIZE];
+      ownRecordChunks = Arrays.copyOf(ownRecordChunks, chunks);
+      ownRecordChunks[chunks - 1] = true;
+      ownRecords = Arrays.copyOf(ownRecords, chunks * BLOCKS_PER_CHUNK);
+      Arrays.fill(ownRecords, (chunks - 1) * BLOCKS_PER_CHUNK, ownRecords.length, true);
+      sharedRecords = Arrays.copyOf(sharedRecords, ownRecords.length);
+      ownPositions = Arrays.copyOf(ownPositions, chunks);
+      ownPositions[chunks - 1] = true;
+      capacity += CHUNK_SIZE;
+    }
+  }
+
+  /**
+   * Start again with the number of free slots, all this index's own.
+   */
+  private void newSlots(int count) {
+    int chunks = Math.max(1, count >>> CHUNK_BITS);
+    slots = new int[chunks][Math.min(count, CHUNK_SIZE)];
+    ownSlots = new boolean[chunks];
+    Arrays.fill(ownSlots, true);
+    slotCount = count;
+    deletedSlots = 0;
+  }
+
+  /**
+   * @return the slot holding the key, or if it is absent -1 minus the slot it should be put in
+   */
+  private int find(Object key) {
+    if (numbers != null)
+      return key instanceof String ? find(toNumber((String) key)) : -1;
+    int mask = slotCount - 1;
+    int firstDeleted = -1;
+    for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+      int slot = slotAt(i);
+      if (slot == FREE)
+        return -1 - (firstDeleted == -1 ? i : firstDeleted);
+      if (slot == DELETED) {
+        if (firstDeleted == -1)
+          firstDeleted = i;
+      } else if (keyAt(slot - 1).equals(key))
+        return i;
+    }
+  }
+
+  /**
+   * @return the slot holding the number, or if it is absent -1 minus the slot it should be put in
+   */
+  private int find(long number) {
+    if (number == NOT_A_NUMBER)
+      return -1;
+    int mask = slotCount - 1;
+    int firstDeleted = -1;
+    for (int i = hash(number) & mask;; i = (i + 1) & mask) {
+      int slot = slotAt(i);
+      if (slot == FREE)
+        return -1 - (firstDeleted == -1 ? i : firstDeleted);
+      if (slot == DELETED) {
+        if (firstDeleted == -1)
+          firstDeleted = i;
+      } else if (numberAt(slot - 1) == number)
+        return i;
+    }
+  }
+
+  @Override
+  boolean addKey(String key) {
+    return insert(key, null);
+  }
+
+  private boolean insert(String key, CsvRecord record) {
+    if (key == null)
+      throw new NullPointerException("Key may not be null");
+    long number = NOT_A_NUMBER;
+    if (numbers != null) {
+      number = toNumber(key);
+      if (number == NOT_A_NUMBER)
+        toStrings();
+    }
+    if ((size + deletedSlots + 1) * 2 > slotCount)
+      rehash();
+    int found = numbers == null ? find(key) : find(number);
+    if (found >= 0)
+      return false;
+    if (end == capacity) {
+      if (end - size > capacity / 4)
+        compact();
+      else
+        growPositions();
+      found = numbers == null ? find(key) : find(number);
+    }
+    int slot = -1 - found;
+    if (slotAt(slot) == DELETED)
+      deletedSlots--;
+    setPosition(end++, key, number, record);
+    setSlot(slot, end);
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  boolean removeKey(Object key) {
+    if (key == null || size == 0)
+      return false;
+    int found = find(key);
+    if (found < 0)
+      return false;
+    setPosition(slotAt(found) - 1, null, GAP, null);
+    setSlot(found, DELETED);
+    deletedSlots++;
+    size--;
+    modCount++;
+    while (end > 0 && isGap(end - 1))
+      end--;
+    if (end - size > end / 2 && end > INITIAL_CAPACITY)
+      compact();
+    return true;
+  }
+
+  /**
+   * @return the record of the key, or null
+   */
+  CsvRecord getRecord(Object key) {
+    if (key == null || size == 0)
+      return null;
+    int found = find(key);
+    return found < 0 ? null : recordAt(slotAt(found) - 1);
+  }
+
+  /**
+   * @return the record of the key, or null, which may still be that of the index copied, so is only to be read
+   */
+  CsvRecord peekRecord(Object key) {
+    if (key == null || size == 0)
+      return null;
+    int found = find(key);
+    if (found < 0)
+      return null;
+    int position = slotAt(found) - 1;
+    return records[position >>> CHUNK_BITS][position & CHUNK_MASK];
+  }
+
+  /**
+   * Set the record of the key, adding the key at the end if it is not already present.
+   *
+   * @return the key's previous record, or null
+   */
+  CsvRecord putRecord(String key, CsvRecord record) {
+    int found = key == null ? -1 : find(key);
+    if (found < 0) {
+      insert(key, record);
+      return null;
+    }
+    int position = slotAt(found) - 1;
+    CsvRecord previous = recordAt(position);
+    setRecord(position, record);
+    return previous;
+  }
+
+  /**
+   * Close the gaps left by removed keys.
+   */
+  private void compact() {
+    ownAllRecords();
+    String[][] oldKeys = keys;
+    long[][] oldNumbers = numbers;
+    CsvRecord[][] oldRecords = records;
+    int oldEnd = end;
+    newPositions(capacity);
+    end = 0;
+    for (int from = 0; from < oldEnd; from++) {
+      if (oldNumbers == null) {
+        String key = oldKeys[from >>> CHUNK_BITS][from & CHUNK_MASK];
+        if (key == null)
+          continue;
+        keys[end >>> CHUNK_BITS][end & CHUNK_MASK] = key;
+      } else {
+        long number = oldNumbers[from >>> CHUNK_BITS][from & CHUNK_MASK];
+        if (number == GAP)
+          continue;
+        numbers[end >>> CHUNK_BITS][end & CHUNK_MASK] = number;
+      }
+      records[end >>> CHUNK_BITS][end & CHUNK_MASK] = oldRecords[from >>> CHUNK_BITS][from & CHUNK_MASK];
+      end++;
+    }
+    reindex(slotCount);
+  }
+
+  /**
+   * Hold the keys as Strings from now on, as one which is not a number is being added.
+   */
+  private void toStrings() {
+    keys = new String[numbers.length][];
+    for (int chunk = 0; chunk < numbers.length; chunk++) {
+      long[] numberChunk = numbers[chunk];
+      String[] keyChunk = new String[numberChunk.length];
+      for (int i = 0; i < numberChunk.length; i++)
+        if (numberChunk[i] != GAP)
+          keyChunk[i] = Long.toString(numberChunk[i]);
+      keys[chunk] = keyChunk;
+      ownPositions[chunk] = true;
+    }
+    numbers = null;
+    reindex(slotCount);
+  }
+
+  /**
+   * Resize the hash table to keep it at most a third full, clearing its tombstones.
+   */
+  private void rehash() {
+    int count = INITIAL_CAPACITY;
+    while ((size + 1) * 3 > count)
+      count *= 2;
+    reindex(Math.max(count, slotCount));
+  }
+
+  private void reindex(int count) {
+    newSlots(count);
+    for (int position = 0; position < end; position++) {
+      if (numbers == null) {
+        String key = keyAt(position);
+        if (key != null)
+          setSlot(-1 - find(key), position + 1);
+      } else {
+        long number = numberAt(position);
+        if (number != GAP)
+          setSlot(-1 - find(number), position + 1);
+      }
+    }
+  }
+
+  @Override
+  public boolean contains(Object key) {
+    return key != null && size > 0 && find(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  int end() {
+    return end;
+  }
+
+  @Override
+  void removeAllKeys() {
+    if (records != null)
+      releaseRecords();
+    keys = null;
+    newPositions(INITIAL_CAPACITY);
+    end = 0;
+    size = 0;
+    newSlots(INITIAL_CAPACITY * 2);
+    modCount++;
+  }
+
+  /**
+   * @return a map from each key to its record, in key order
+   */
+  @Override
+  Map<String, CsvRecord> asMap(CsvTable table) {
+    return new Records();
+  }
+
+  /**
+   * The keys and records as a map.
+   */
+  private final class Records extends AbstractMap<String, CsvRecord> {
+
+    @Override
+    public CsvRecord get(Object key) {
+      return getRecord(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return contains(key);
+    }
+
+    @Override
+    public CsvRecord put(String key, CsvRecord record) {
+      return putRecord(key, record);
+    }
+
+    @Override
+    public CsvRecord remove(Object key) {
+      CsvRecord record = get(key);
+      removeKey(key);
+      return record;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      removeAllKeys();
+    }
+
+    @Override
+    public Set<Map.Entry<String, CsvRecord>> entrySet() {
+      return new AbstractSet<Map.Entry<String, CsvRecord>>() {
+        @Override
+        public Iterator<Map.Entry<String, CsvRecord>> iterator() {
+          return new Iterator<Map.Entry<String, CsvRecord>>() {
+            private int position = 0;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+              while (position < end && isGap(position))
+                position++;
+              return position < end;
+            }
+
+            @Override
+            public Map.Entry<String, CsvRecord> next() {
+              if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+              if (!hasNext())
+                throw new NoSuchElementException();
+              String key = keyAt(position);
+              return new SimpleImmutableEntry<String, CsvRecord>(key, recordAt(position++));
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+  }
+}
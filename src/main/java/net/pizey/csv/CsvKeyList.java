@@ -0,0 +1,189 @@
+package net.pizey.csv;
+
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The keys of a table, in the order they were added, each at a position which a removed key leaves as a gap.
+ * <p>
+ * As a List the keys cannot be changed, as they must change along with their records; keys are added and removed
+ * through {@link #addKey(String)}, {@link #removeKey(Object)} and {@link #removeAllKeys()}, or the map returned by
+ * {@link #asMap(CsvTable)}. Getting a key by index walks the keys if there are gaps.
+ */
+abstract class CsvKeyList extends AbstractList<String> {
+
+  /**
+   * Add the key at the end, unless it is already present.
+   *
+   * @return whether the key was added
+   */
+  abstract boolean addKey(String key);
+
+  /**
+   * @return whether the key was present
+   */
+  abstract boolean removeKey(Object key);
+
+  /**
+   * Start again with no keys.
+   */
+  abstract void removeAllKeys();
+
+  /**
+   * @throws UnsupportedOperationException
+   *           always, as the keys are only cleared along with their records, by the table
+   */
+  @Override
+  public final void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return a map from each key to its record, in key order, whose records belong to the table
+   */
+  abstract Map<String, CsvRecord> asMap(CsvTable table);
+
+  /**
+   * @return the number of positions used, including gaps
+   */
+  abstract int end();
+
+  /**
+   * @return the key at the position, or null if it has been removed
+   */
+  abstract String keyAt(int position);
+
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    if (end() == size())
+      return keyAt(index);
+    int position = -1;
+    for (int i = 0; i <= index; i++)
+      do
+        position++;
+      while (keyAt(position) == null);
+    return keyAt(position);
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private int position = 0;
+      private String next;
+      private int expectedModCount = modCount;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null && position < end())
+          next = keyAt(position++);
+        return next != null;
+      }
+
+      @Override
+      public String next() {
+        if (modCount != expectedModCount)
+          throw new ConcurrentModificationException();
+        if (!hasNext())
+          throw new NoSuchElementException();
+        String key = next;
+        next = null;
+        return key;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public Spliterator<String> spliterator() {
+    return spliterator(Function.<String> identity());
+  }
+
+  /**
+   * @return a spliterator over whatever each key gives, which splits the keys into halves by position
+   */
+  <E> Spliterator<E> spliterator(Function<? super String, ? extends E> element) {
+    return new KeySpliterator<E>(element, 0, end(), end() == size(), modCount);
+  }
+
+  /**
+   * A spliterator over a range of positions in the keys, failing if they are changed.
+   */
+  private final class KeySpliterator<E> implements Spliterator<E> {
+    private Function<? super String, ? extends E> element;
+    private int position;
+    private int limit;
+    /** Whether there are no gaps, so that the size is known exactly. */
+    private boolean exact;
+    private int expectedModCount;
+
+    KeySpliterator(Function<? super String, ? extends E> element, int position, int limit, boolean exact,
+        int expectedModCount) {
+      super();
+      this.element = element;
+      this.position = position;
+      this.limit = limit;
+      this.exact = exact;
+      this.expectedModCount = expectedModCount;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException();
+      while (position < limit) {
+        String key = keyAt(position++);
+        if (key != null) {
+          action.accept(element.apply(key));
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+      if (modCount != expectedModCount || limit > end())
+        throw new ConcurrentModificationException();
+      for (; position < limit; position++) {
+        String key = keyAt(position);
+        if (key != null)
+          action.accept(element.apply(key));
+      }
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException();
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+      int middle = (position + limit) >>> 1;
+      if (middle <= position)
+        return null;
+      KeySpliterator<E> prefix = new KeySpliterator<E>(element, position, middle, exact, expectedModCount);
+      position = middle;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return limit - position;
+    }
+
+    @Override
+    public int characteristics() {
+      return Spliterator.ORDERED | Spliterator.NONNULL
+          | (exact ? Spliterator.SIZED | Spliterator.SUBSIZED : 0);
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package net.pizey.csv;
+
+/**
+ * Thrown when a file said to be sorted by primary key has a key which comes before the one on the line before it.
+ */
+public class CsvKeyOrderException extends CsvException {
+
+  private static final long serialVersionUID = -2716340129863359124L;
+  private String key;
+  private String previousKey;
+  private int lineNo;
+
+  public CsvKeyOrderException(int lineNo, String key, String previousKey) {
+    super();
+    this.key = key;
+    this.previousKey = previousKey;
+    this.lineNo = lineNo;
+  }
+
+  @Override
+  public String getMessage() {
+    return "Line " + lineNo + ": Key " + key + " is out of order, after " + previousKey;
+  }
+
+}
@@ -0,0 +1,318 @@
+package net.pizey.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+/**
+ * A CsvParser which memory maps its file and tokenises the bytes in place.
+ * <p>
+ * The bytes are taken to be UTF-8, of which ASCII is a subset. The separators and quotes are all single byte
+ * characters, so the state machine, which follows the same rules as {@link CsvFileParser}, never needs to decode
+ * anything; only the fields which are returned are decoded, and those which are pure ASCII take a fast path.
+ * <p>
+ * The file is mapped a window at a time, so it may be larger than the address space; a window is re-mapped from the
+ * start of the current field when the field runs off its end.
+ */
+public class CsvMappedFileParser implements CsvParser {
+
+  static final int DEFAULT_WINDOW_SIZE = 32 * 1024 * 1024;
+
+  private static final Charset ASCII = Charset.forName("ISO-8859-1");
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** The file, if this parser opened it and so must close it. */
+  private RandomAccessFile file;
+  private FileChannel channel;
+  /** Absolute offset of the end of the input. */
+  private long end;
+  private int windowSize;
+
+  private MappedByteBuffer window;
+  /** Absolute offset of the start of the window. */
+  private long windowStart;
+  /** Index within the window of the next byte to be scanned. */
+  private int position = 0;
+  private int limit = 0;
+  /** Start within the window of the field being scanned, which must survive a re-map, or -1. */
+  private int mark = -1;
+
+  /** Quoted fields are copied here as they are scanned, as they may contain line ends to normalise. */
+  private byte[] scratch = new byte[256];
+  private int scratchLength = 0;
+  /** All the bytes of the field being scanned or'ed together, negative if any is not ASCII. */
+  private int highBits = 0;
+
+  /** Absolute offset of the start of the current record. */
+  private long recordStart;
+
+  /** Where a kept field is added instead of being returned, or null. */
+  private CsvRawFields target = null;
+
+  private int lineNo = 0; // The first line will be line '1'
+  private boolean inRecord = false;
+  private boolean moreFields = false;
+
+  /**
+   * Constructor.
+   *
+   * @param file
+   *          the file to map
+   */
+  public CsvMappedFileParser(File file) throws IOException {
+    this(new RandomAccessFile(file, "r"), DEFAULT_WINDOW_SIZE);
+  }
+
+  CsvMappedFileParser(RandomAccessFile file, int windowSize) throws IOException {
+    this(file.getChannel(), 0, 0, windowSize);
+    this.file = file;
+  }
+
+  /**
+   * A parser starting part way through a file, which must be at the start of a record; the channel is not closed by
+   * this parser.
+   *
+   * @param start
+   *          absolute offset of the first record
+   * @param linesBefore
+   *          the number of lines before start, so that line numbers are absolute
+   */
+  CsvMappedFileParser(FileChannel channel, long start, int linesBefore, int windowSize)
+      throws IOException {
+    this.channel = channel;
+    this.end = channel.size();
+    this.windowSize = windowSize;
+    this.windowStart = start;
+    this.recordStart = start;
+    this.lineNo = linesBefore;
+  }
+
+  @Override
+  public int getLineNo() {
+    return lineNo;
+  }
+
+  @Override
+  public boolean recordHasMoreFields() {
+    return moreFields;
+  }
+
+  @Override
+  public String nextField() throws IOException {
+    if (!moreFields)
+      throw new NoSuchElementException("Line " + lineNo
+          + ": no more fields in record (eof before end of token)");
+    return scanField(true);
+  }
+
+  @Override
+  public void skipField() throws IOException {
+    if (!moreFields)
+      throw new NoSuchElementException("Line " + lineNo
+          + ": no more fields in record (eof before end of token)");
+    scanField(false);
+  }
+
+  @Override
+  public void nextRawField(CsvRawFields fields) throws IOException {
+    if (!moreFields)
+      throw new NoSuchElementException("Line " + lineNo
+          + ": no more fields in record (eof before end of token)");
+    target = fields;
+    try {
+      scanField(true);
+    } finally {
+      target = null;
+    }
+  }
+
+  @Override
+  public boolean hasNextRecord() throws IOException {
+    if (inRecord) {
+      while (moreFields)
+        scanField(false);
+      skipLineEnd();
+    }
+    if (!available()) {
+      inRecord = false;
+      return false;
+    }
+    inRecord = true;
+    lineNo++;
+    recordStart = windowStart + position;
+    moreFields = !isLineEnd(window.get(position));
+    return true;
+  }
+
+  /**
+   * @return the absolute offset of the first byte of the current record
+   */
+  long getRecordStart() {
+    return recordStart;
+  }
+
+  /**
+   * @return the absolute offset of the end of the input
+   */
+  long getEnd() {
+    return end;
+  }
+
+  /**
+   * Release the file; the parser cannot be used afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    window = null;
+    if (file != null)
+      file.close();
+  }
+
+  private String scanField(boolean keep) throws IOException {
+    if (!available()) {
+      // A comma was the last byte of the input
+      moreFields = false;
+      scratchLength = 0;
+      return decodeScratch(keep);
+    }
+    highBits = 0;
+    if (window.get(position) == '"') {
+      position++;
+      return scanQuoted(keep);
+    }
+    return scanPlain(keep);
+  }
+
+  private String scanPlain(boolean keep) throws IOException {
+    mark = keep ? position : -1;
+    while (true) {
+      if (!available()) {
+        moreFields = false;
+        return endPlainField(keep);
+      }
+      byte b = window.get(position);
+      if (b == ',') {
+        String value = endPlainField(keep);
+        position++;
+        moreFields = true;
+        return value;
+      }
+      if (isLineEnd(b)) {
+        moreFields = false;
+        return endPlainField(keep);
+      }
+      highBits |= b;
+      position++;
+    }
+  }
+
+  private String scanQuoted(boolean keep) throws IOException {
+    scratchLength = 0;
+    while (true) {
+      if (!available())
+        throw new IllegalArgumentException("Unclosed quoted field on line "
+            + lineNo);
+      byte b = window.get(position++);
+      if (b == '"') {
+        if (!available()) {
+          moreFields = false;
+          return decodeScratch(keep);
+        }
+        byte next = window.get(position);
+        if (next == ',') {
+          position++;
+          moreFields = true;
+          return decodeScratch(keep);
+        }
+        if (isLineEnd(next)) {
+          moreFields = false;
+          return decodeScratch(keep);
+        }
+      } else if (isLineEnd(b)) {
+        if (b == '\r' && available() && window.get(position) == '\n')
+          position++;
+        lineNo++;
+        b = '\n';
+      }
+      if (keep) {
+        if (scratchLength == scratch.length)
+          scratch = grow(scratch, scratchLength + 1);
+        scratch[scratchLength++] = b;
+        highBits |= b;
+      }
+    }
+  }
+
+  private String endPlainField(boolean keep) {
+    if (!keep)
+      return null;
+    int length = position - mark;
+    if (scratch.length < length)
+      scratch = grow(scratch, length);
+    window.position(mark);
+    window.get(scratch, 0, length);
+    mark = -1;
+    scratchLength = length;
+    return decodeScratch(true);
+  }
+
+  private String decodeScratch(boolean keep) {
+    if (!keep)
+      return null;
+    if (target != null) {
+      target.add(scratch, 0, scratchLength);
+      return null;
+    }
+    return new String(scratch, 0, scratchLength, highBits < 0 ? UTF8 : ASCII);
+  }
+
+  private void skipLineEnd() throws IOException {
+    if (available() && window.get(position) == '\r')
+      position++;
+    if (available() && window.get(position) == '\n')
+      position++;
+  }
+
+  private static boolean isLineEnd(byte b) {
+    return b == '\n' || b == '\r';
+  }
+
+  private static byte[] grow(byte[] bytes, int atLeast) {
+    byte[] bigger = new byte[Math.max(bytes.length * 2, atLeast)];
+    System.arraycopy(bytes, 0, bigger, 0, bytes.length);
+    return bigger;
+  }
+
+  private boolean available() throws IOException {
+    return position < limit || remap();
+  }
+
+  /**
+   * Map the next window, starting from the field being scanned if there is one, growing the window if that field
+   * fills it.
+   *
+   * @return false at end of input
+   */
+  private boolean remap() throws IOException {
+    if (windowStart + limit >= end)
+      return false;
+    int keepFrom = mark >= 0 ? mark : position;
+    int kept = limit - keepFrom;
+    long start = windowStart + keepFrom;
+    long size = Math.min(Math.max(windowSize, kept * 2L), end - start);
+    if (size > Integer.MAX_VALUE)
+      size = Integer.MAX_VALUE;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    windowStart = start;
+    limit = (int) size;
+    position -= keepFrom;
+    if (mark >= 0)
+      mark = 0;
+    return position < limit;
+  }
+
+}
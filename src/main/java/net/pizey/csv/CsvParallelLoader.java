@@ -0,0 +1,216 @@
+package net.pizey.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a CsvTable from a file by parsing chunks of it at the same time.
+ * <p>
+ * The data after the header line is split into byte ranges, each of which is moved on to just after the first line
+ * end within it. A line end may be inside a quoted field, so this start is only a guess: each chunk is parsed from its
+ * guessed start, on the shared pool, taking every record which starts before the next chunk's guessed start. The
+ * chunks are then taken in order, and a chunk whose guess does not match where the previous chunk actually stopped is
+ * parsed again, from the right place, before its records are added. As the records are added in file order, through
+ * {@link CsvTable#add(CsvRecord)}, key order and duplicate key detection are just as for a sequential load.
+ * <p>
+ * Values are only shared through the table's dictionaries as the records of a chunk are added, so the records of a
+ * chunk which is parsed again are not counted twice in the savings the dictionaries report.
+ */
+final class CsvParallelLoader {
+
+  static final int MINIMUM_CHUNK_SIZE = 64 * 1024;
+  static final int MAXIMUM_CHUNK_SIZE = 16 * 1024 * 1024;
+
+  private static ForkJoinPool pool;
+
+  private CsvTable table;
+  private int chunkSize;
+
+  CsvParallelLoader(CsvTable table) {
+    this(table, 0);
+  }
+
+  /**
+   * @param chunkSize
+   *          the size in bytes of each chunk, or 0 to pick one to suit the file size and number of processors
+   */
+  CsvParallelLoader(CsvTable table, int chunkSize) {
+    this.table = table;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * @return the pool shared by all parallel operations
+   */
+  static synchronized ForkJoinPool getPool() {
+    if (pool == null)
+      pool = new ForkJoinPool();
+    return pool;
+  }
+
+  void load(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      load(randomAccessFile.getChannel());
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private void load(FileChannel channel) throws IOException {
+    CsvMappedFileParser header = new CsvMappedFileParser(channel, 0, 0, MINIMUM_CHUNK_SIZE);
+    table.defineColumns(header);
+    if (!header.hasNextRecord())
+      return;
+    long dataStart = header.getRecordStart();
+    int headerLines = header.getLineNo() - 1;
+    long end = channel.size();
+
+    int size = chunkSize > 0 ? chunkSize : chooseChunkSize(end - dataStart);
+    List<Long> starts = new ArrayList<Long>();
+    starts.add(dataStart);
+    for (long nominal = dataStart + size; nominal < end; nominal += size) {
+      long start = nextLineStart(channel, nominal);
+      if (start > starts.get(starts.size() - 1) && start < end)
+        starts.add(start);
+    }
+    starts.add(end);
+
+    List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+    for (int i = 0; i < starts.size() - 1; i++) {
+      final Chunk chunk = new Chunk(channel, starts.get(i), starts.get(i + 1), 0);
+      futures.add(getPool().submit(new Callable<Chunk>() {
+        @Override
+        public Chunk call() {
+          chunk.parseSpeculatively();
+          return chunk;
+        }
+      }));
+    }
+
+    long expected = dataStart;
+    int linesBefore = headerLines;
+    for (Future<Chunk> future : futures) {
+      Chunk chunk = get(future);
+      if (expected >= chunk.stop)
+        continue; // swallowed by a record of the previous chunk
+      if (chunk.start != expected || chunk.failure != null) {
+        chunk = new Chunk(channel, expected, chunk.stop, linesBefore);
+        chunk.parse();
+      }
+      int lineOffset = linesBefore - chunk.linesBefore;
+      for (CsvRecord record : chunk.records) {
+        record.setLineNo(record.getLineNo() + lineOffset);
+        table.intern(record);
+        table.add(record);
+      }
+      expected = chunk.end;
+      linesBefore += chunk.lines;
+    }
+  }
+
+  private int chooseChunkSize(long length) {
+    long perTask = length / (getPool().getParallelism() * 4L);
+    return (int) Math.max(MINIMUM_CHUNK_SIZE, Math.min(MAXIMUM_CHUNK_SIZE, perTask));
+  }
+
+  private static Chunk get(Future<Chunk> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw new CsvBugException("Interrupted whilst loading", e);
+    } catch (ExecutionException e) {
+      throw new CsvBugException("Unexpected exception", e.getCause());
+    }
+  }
+
+  /**
+   * @return the offset just after the first line end at or after offset - 1, or the end of the file
+   */
+  static long nextLineStart(FileChannel channel, long offset) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+    long at = offset - 1;
+    boolean afterCarriageReturn = false;
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, at);
+      if (read <= 0)
+        return afterCarriageReturn ? at : channel.size();
+      for (int i = 0; i < read; i++) {
+        byte b = buffer.get(i);
+        if (afterCarriageReturn)
+          return b == '\n' ? at + i + 1 : at + i;
+        if (b == '\n')
+          return at + i + 1;
+        if (b == '\r')
+          afterCarriageReturn = true;
+      }
+      at += read;
+    }
+  }
+
+  /**
+   * The records which start in [start, stop).
+   */
+  private final class Chunk {
+    private FileChannel channel;
+    private long start;
+    private long stop;
+    private int linesBefore;
+
+    private List<CsvRecord> records = new ArrayList<CsvRecord>();
+    /** Where the record after the last one taken starts. */
+    private long end;
+    /** The number of lines from start to end. */
+    private int lines;
+    private RuntimeException failure;
+
+    Chunk(FileChannel channel, long start, long stop, int linesBefore) {
+      this.channel = channel;
+      this.start = start;
+      this.stop = stop;
+      this.linesBefore = linesBefore;
+    }
+
+    /**
+     * Parse, holding on to any failure, as start may not be the start of a record.
+     */
+    void parseSpeculatively() {
+      try {
+        parse();
+      } catch (RuntimeException e) {
+        failure = e;
+      } catch (IOException e) {
+        failure = new CsvBugException("Unexpected exception", e);
+      }
+    }
+
+    void parse() throws IOException {
+      int windowSize = (int) Math.min(stop - start + MINIMUM_CHUNK_SIZE, MAXIMUM_CHUNK_SIZE);
+      CsvMappedFileParser parser = new CsvMappedFileParser(channel, start, linesBefore, windowSize);
+      CsvRow row = table.newRow();
+      while (parser.hasNextRecord()) {
+        if (parser.getRecordStart() >= stop) {
+          end = parser.getRecordStart();
+          lines = parser.getLineNo() - 1 - linesBefore;
+          return;
+        }
+        CsvRecord record = table.readRecord(parser, row, false);
+        if (record != null)
+          records.add(record);
+      }
+      end = parser.getEnd();
+      lines = parser.getLineNo() - linesBefore;
+    }
+  }
+
+}
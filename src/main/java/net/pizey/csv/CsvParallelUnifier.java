@@ -0,0 +1,147 @@
+package net.pizey.csv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Unifies a candidate table with a table by unifying the candidate's records at the same time.
+ * <p>
+ * The candidate's records are split into partitions by the hash of their keys, each of which is unified with the
+ * table on the shared pool, a record at a time in the candidate's order. Each record is unified with the one record of
+ * its key, which no other partition touches, so the records need no locking. Only the fields the table's record
+ * already has are unified there: adding a field may add a column to the table, so a record which would add one is
+ * left, as is a record whose key is missing, and a partition stops at its first conflict. The records are then taken
+ * in the candidate's order, on the calling thread, and those left are unified just as
+ * {@link CsvTable#unify(CsvTable, boolean)} would unify them, up to the first conflict, which is thrown. So the key
+ * order, column order, logged messages and first failure are those of a sequential unify, whatever the timing of the
+ * threads.
+ * <p>
+ * The table's record of each candidate key is looked up on the calling thread first, so that the partitions only read
+ * the table's index, and any chunk of records still shared with the table it was copied from is cloned before the
+ * partitions start.
+ * <p>
+ * The records of a COLUMNAR, OFF_HEAP or ARENA table are views of a store which all its rows write to, so for those a
+ * partition only checks its records, and every change is made on the calling thread.
+ */
+final class CsvParallelUnifier {
+
+  static final int MINIMUM_PARTITION_SIZE = 1024;
+
+  private static final byte UNIFIED = 0;
+  private static final byte MISSING = 1;
+  /** Left to be unified on the calling thread. */
+  private static final byte LEFT = 2;
+  private static final byte CONFLICTING = 3;
+
+  private CsvTable table;
+
+  CsvParallelUnifier(CsvTable table) {
+    this.table = table;
+  }
+
+  /**
+   * Unify the candidate table with the table, changing the table.
+   */
+  void unify(CsvTable candidateTable, final boolean unifyWithEmpty) {
+    final List<CsvRecord> candidates = new ArrayList<CsvRecord>(candidateTable.values());
+    final byte[] outcomes = new byte[candidates.size()];
+    int parallelism = CsvParallelLoader.getPool().getParallelism();
+    int partitionCount = Math.max(1, Math.min(parallelism * 4, candidates.size() / MINIMUM_PARTITION_SIZE));
+    int[] partitionOf = new int[candidates.size()];
+    int[] sizes = new int[partitionCount];
+    for (int i = 0; i < candidates.size(); i++) {
+      partitionOf[i] = partition(candidates.get(i).getPrimaryKey(), partitionCount);
+      sizes[partitionOf[i]]++;
+    }
+    int[][] partitions = new int[partitionCount][];
+    for (int p = 0; p < partitionCount; p++)
+      partitions[p] = new int[sizes[p]];
+    int[] filled = new int[partitionCount];
+    for (int i = 0; i < candidates.size(); i++)
+      partitions[partitionOf[i]][filled[partitionOf[i]]++] = i;
+
+    final boolean merging = table.getStorageOption() == StorageOptions.EAGER
+        || table.getStorageOption() == StorageOptions.LAZY;
+    final CsvRecord[] currents = new CsvRecord[candidates.size()];
+    for (int i = 0; i < candidates.size(); i++) {
+      String key = candidates.get(i).getPrimaryKey();
+      currents[i] = merging ? table.get(key) : table.peek(key);
+    }
+    final CsvRecordUnificationException[] conflicts = new CsvRecordUnificationException[partitionCount];
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int p = 0; p < partitionCount; p++) {
+      final int partition = p;
+      final int[] members = partitions[p];
+      futures.add(CsvParallelLoader.getPool().submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          conflicts[partition] = unify(candidates, currents, members, outcomes, merging, unifyWithEmpty);
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures)
+      get(future);
+
+    for (int i = 0; i < outcomes.length; i++) {
+      CsvRecord candidateRecord = candidates.get(i);
+      if (outcomes[i] == MISSING)
+        table.notFound(candidateTable, candidateRecord);
+      else if (outcomes[i] == LEFT)
+        table.get(candidateRecord.getPrimaryKey()).unify(candidateRecord, unifyWithEmpty);
+      else if (outcomes[i] == CONFLICTING)
+        throw conflicts[partitionOf[i]];
+    }
+  }
+
+  /**
+   * @return the partition of the candidate key
+   */
+  static int partition(String key, int partitionCount) {
+    int h = key.hashCode();
+    return ((h ^ (h >>> 16)) & 0x7fffffff) % partitionCount;
+  }
+
+  /**
+   * Unify the candidate records of a partition, in order, with the table's current ones, or just check them if not
+   * merging.
+   *
+   * @return the first conflict, or null; the partition's records after it are never reached, as it is thrown first
+   */
+  private static CsvRecordUnificationException unify(List<CsvRecord> candidates, CsvRecord[] currents, int[] members,
+      byte[] outcomes, boolean merging, boolean unifyWithEmpty) {
+    for (int i : members) {
+      CsvRecord candidateRecord = candidates.get(i);
+      CsvRecord currentRecord = currents[i];
+      if (currentRecord == null)
+        outcomes[i] = MISSING;
+      else {
+        try {
+          if (merging)
+            outcomes[i] = currentRecord.unifyExistingFields(candidateRecord, unifyWithEmpty) ? LEFT : UNIFIED;
+          else
+            outcomes[i] = currentRecord.unifyChanges(candidateRecord, unifyWithEmpty) ? LEFT : UNIFIED;
+        } catch (CsvRecordUnificationException e) {
+          outcomes[i] = CONFLICTING;
+          return e;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void get(Future<Void> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      throw new CsvBugException("Interrupted whilst unifying", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new CsvBugException("Unexpected exception", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package net.pizey.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of CSV records, each of which is a sequence of string fields.
+ * <p>
+ * Each record is moved to by calling <code>hasNextRecord()</code>, after which <code>recordHasMoreFields()</code> and
+ * <code>nextField()</code> can be used like an Enumeration to iterate through its fields. Closing a parser closes its
+ * input.
+ */
+public interface CsvParser extends Closeable {
+
+  /**
+   * @return the number of the last physical line read, the first line being line 1
+   */
+  int getLineNo();
+
+  /**
+   * Move on to the next record, discarding any unread fields of the current one.
+   * 
+   * @return whether there is another record
+   */
+  boolean hasNextRecord() throws IOException;
+
+  /**
+   * @return whether there are more fields in the current record
+   */
+  boolean recordHasMoreFields();
+
+  /**
+   * @return the next field of the current record
+   * @throws java.util.NoSuchElementException
+   *           if the record has no more fields
+   * @throws IllegalArgumentException
+   *           if a quoted field is not closed
+   */
+  String nextField() throws IOException;
+
+  /**
+   * Pass over the next field of the current record without creating its value.
+   * 
+   * @throws java.util.NoSuchElementException
+   *           if the record has no more fields
+   * @throws IllegalArgumentException
+   *           if a quoted field is not closed
+   */
+  void skipField() throws IOException;
+
+  /**
+   * Add the next field of the current record to fields, encoded as UTF-8, without creating a String.
+   * 
+   * @throws java.util.NoSuchElementException
+   *           if the record has no more fields
+   * @throws IllegalArgumentException
+   *           if a quoted field is not closed
+   */
+  void nextRawField(CsvRawFields fields) throws IOException;
+
+}
@@ -0,0 +1,55 @@
+package net.pizey.csv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens files for parsing.
+ */
+final class CsvParsers {
+
+  private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+  private CsvParsers() {
+  }
+
+  /**
+   * A gzipped file, whatever its name, is decompressed as it is read, on a thread of its own, whichever ingestion
+   * option is asked for.
+   * 
+   * @return a parser for the file, which the caller must close; PARALLEL ingestion is sequential here, as MAPPED
+   */
+  static CsvParser open(File file, IngestionOptions ingestionOption) throws IOException {
+    if (isGzipped(file))
+      return new CsvFileParser(new InputStreamReader(new CsvPrefetchingInputStream(
+          new GZIPInputStream(new FileInputStream(file), GZIP_BUFFER_SIZE), file.getName())));
+    switch (ingestionOption) {
+    case MAPPED:
+    case PARALLEL:
+      return new CsvMappedFileParser(file);
+    case PREFETCH:
+      return new CsvFileParser(new InputStreamReader(
+          new CsvPrefetchingInputStream(new FileInputStream(file), file.getName())));
+    default:
+      return new CsvFileParser(new BufferedReader(new FileReader(file)));
+    }
+  }
+
+  /**
+   * @return whether the file starts with the gzip magic number
+   */
+  static boolean isGzipped(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return in.read() == 0x1f && in.read() == 0x8b;
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package net.pizey.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An InputStream which reads ahead of its consumer on a thread of its own.
+ * <p>
+ * The reading thread fills fixed size buffers from the source and hands them over a bounded queue, so that the
+ * consumer, typically a parser, is not held up by the latency of the source, and the source is read while the consumer
+ * works. Emptied buffers are handed back to be refilled, so at most a fixed number of buffers is ever allocated.
+ */
+public class CsvPrefetchingInputStream extends InputStream {
+
+  static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+  static final int DEFAULT_BUFFER_COUNT = 4;
+
+  private InputStream source;
+  private BlockingQueue<Buffer> full;
+  private BlockingQueue<Buffer> empty;
+  private Thread reader;
+  private volatile boolean closed = false;
+
+  /** The buffer being read from, or null if another is needed. */
+  private Buffer current;
+  private int position;
+  private boolean atEnd = false;
+
+  /**
+   * @param source
+   *          read from on another thread, and closed by it when the end is reached or this is closed
+   */
+  public CsvPrefetchingInputStream(InputStream source, String name) {
+    this(source, name, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+  CsvPrefetchingInputStream(InputStream source, String name, int bufferSize, int bufferCount) {
+    super();
+    this.source = source;
+    this.full = new ArrayBlockingQueue<Buffer>(bufferCount + 1);
+    this.empty = new ArrayBlockingQueue<Buffer>(bufferCount);
+    for (int i = 0; i < bufferCount; i++)
+      empty.add(new Buffer(bufferSize));
+    this.reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        prefetch();
+      }
+    }, "CsvPrefetch " + name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Fill buffers until the end of the source, then queue an empty one to mark the end.
+   */
+  private void prefetch() {
+    try {
+      try {
+        while (!closed) {
+          Buffer buffer = empty.take();
+          buffer.length = 0;
+          int read = 0;
+          while (buffer.length < buffer.bytes.length
+              && (read = source.read(buffer.bytes, buffer.length, buffer.bytes.length - buffer.length)) >= 0)
+            buffer.length += read;
+          if (buffer.length > 0)
+            full.put(buffer);
+          if (read < 0) {
+            full.put(new Buffer(0));
+            break;
+          }
+        }
+      } catch (IOException e) {
+        Buffer failed = new Buffer(0);
+        failed.failure = e;
+        full.put(failed);
+      } finally {
+        try {
+          source.close();
+        } catch (IOException e) {
+          e = null; // Nothing more can be read anyway
+        }
+      }
+    } catch (InterruptedException e) {
+      e = null; // Closed whilst waiting
+    }
+  }
+
+  /**
+   * @return whether there is a current buffer with bytes left in it
+   */
+  private boolean fill() throws IOException {
+    if (closed)
+      throw new IOException("Stream closed");
+    if (current != null && position < current.length)
+      return true;
+    if (atEnd)
+      return false;
+    if (current != null)
+      empty.add(current);
+    try {
+      current = full.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted whilst waiting for input");
+    }
+    position = 0;
+    if (current.failure != null) {
+      atEnd = true;
+      throw current.failure;
+    }
+    if (current.length == 0) {
+      atEnd = true;
+      current = null;
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill())
+      return -1;
+    return current.bytes[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0)
+      return 0;
+    if (!fill())
+      return -1;
+    int count = Math.min(len, current.length - position);
+    System.arraycopy(current.bytes, position, b, off, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return current == null ? 0 : current.length - position;
+  }
+
+  /**
+   * Stop the reading thread, which closes the source.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed)
+      return;
+    closed = true;
+    reader.interrupt();
+  }
+
+  private static final class Buffer {
+    private byte[] bytes;
+    private int length;
+    private IOException failure;
+
+    Buffer(int size) {
+      this.bytes = new byte[size];
+    }
+  }
+}
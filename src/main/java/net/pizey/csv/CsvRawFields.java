@@ -0,0 +1,127 @@
+package net.pizey.csv;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The undecoded values of some fields of a record, encoded as UTF-8 one after another in a single byte array.
+ * <p>
+ * A parser appends fields to a reusable instance, of which a trimmed copy is kept by a lazily decoded
+ * {@link CsvRecord}; a kept copy is never changed, so it may be shared between records.
+ */
+public final class CsvRawFields {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private byte[] bytes;
+  private int length = 0;
+  /** The offset after the last byte of each field. */
+  private int[] ends;
+  private int size = 0;
+
+  public CsvRawFields() {
+    this(new byte[256], new int[16]);
+  }
+
+  private CsvRawFields(byte[] bytes, int[] ends) {
+    super();
+    this.bytes = bytes;
+    this.ends = ends;
+  }
+
+  /**
+   * @return the number of fields
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the decoded value of field index
+   */
+  public String get(int index) {
+    if (index >= size)
+      throw new IndexOutOfBoundsException("Field " + index + " of " + size);
+    int start = index == 0 ? 0 : ends[index - 1];
+    return new String(bytes, start, ends[index] - start, UTF8);
+  }
+
+  /**
+   * @return the number of bytes held
+   */
+  public int getByteCount() {
+    return length;
+  }
+
+  /**
+   * Remove all the fields, so that the instance can be reused for the next record.
+   */
+  void clear() {
+    length = 0;
+    size = 0;
+  }
+
+  /**
+   * @return a copy holding just these fields, which will not change
+   */
+  CsvRawFields copy() {
+    CsvRawFields copy = new CsvRawFields(Arrays.copyOf(bytes, length), Arrays.copyOf(ends, size));
+    copy.length = length;
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Add a field of bytes which are already UTF-8.
+   */
+  void add(byte[] source, int offset, int count) {
+    ensureCapacity(count);
+    System.arraycopy(source, offset, bytes, length, count);
+    length += count;
+    endField();
+  }
+
+  /**
+   * Add a field of characters, encoding them.
+   */
+  void add(char[] source, int offset, int count) {
+    ensureCapacity(count);
+    for (int i = 0; i < count; i++) {
+      char c = source[offset + i];
+      if (c >= 0x80) {
+        add(new String(source, offset, count));
+        return;
+      }
+      bytes[length + i] = (byte) c;
+    }
+    length += count;
+    endField();
+  }
+
+  void add(String value) {
+    byte[] encoded = value.getBytes(UTF8);
+    add(encoded, 0, encoded.length);
+  }
+
+  private void ensureCapacity(int count) {
+    if (length + count > bytes.length)
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+  }
+
+  private void endField() {
+    if (size == ends.length)
+      ends = Arrays.copyOf(ends, ends.length * 2);
+    ends[size++] = length;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer returnStringBuffer = new StringBuffer();
+    for (int i = 0; i < size; i++) {
+      if (i > 0)
+        returnStringBuffer.append(',');
+      returnStringBuffer.append(get(i));
+    }
+    return returnStringBuffer.toString();
+  }
+}
@@ -0,0 +1,137 @@
+package net.pizey.csv;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the records of a CSV file one at a time, without building a CsvTable.
+ * <p>
+ * The header line is read when the reader is constructed. Each call to {@link #next()} returns the same
+ * {@link CsvRow}, refilled with the values of the next record, so however large the file only one record is held in
+ * memory at a time. A row which is needed after the following call to <code>next()</code> must be copied.
+ *
+ * <pre>
+ * CsvReader reader = new CsvReader(file);
+ * try {
+ *   for (CsvRow row : reader)
+ *     count++;
+ * } finally {
+ *   reader.close();
+ * }
+ * </pre>
+ */
+public class CsvReader implements Iterator<CsvRow>, Iterable<CsvRow>, Closeable {
+
+  private String source;
+  private CsvParser parser;
+  private List<String> columnNames;
+  private CsvRow row;
+
+  /** Whether the parser has been moved on to the next record, which has not yet been read into the row. */
+  private boolean advanced = false;
+  private boolean more;
+
+  public CsvReader(File file) throws IOException {
+    this(file, IngestionOptions.READER);
+  }
+
+  /**
+   * @param ingestionOption
+   *          how to read the file; PARALLEL is read as MAPPED, as records are returned in order
+   */
+  public CsvReader(File file, IngestionOptions ingestionOption) throws IOException {
+    this(CsvParsers.open(file, ingestionOption), file.toString());
+  }
+
+  /**
+   * @param parser
+   *          positioned before the header line, closed when this reader is closed
+   * @param source
+   *          the name of the input, for messages
+   */
+  public CsvReader(CsvParser parser, String source) throws IOException {
+    super();
+    this.parser = parser;
+    this.source = source;
+    this.columnNames = new ArrayList<String>();
+    if (parser.hasNextRecord())
+      while (parser.recordHasMoreFields()) {
+        String columnName = parser.nextField();
+        if (!columnName.equals(""))
+          columnNames.add(columnName);
+      }
+    this.row = new CsvRow(columnNames);
+  }
+
+  /**
+   * @return the names from the header line, in file order, without any empty ones
+   */
+  public List<String> getColumnNames() {
+    return row.getColumnNames();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (!advanced) {
+      try {
+        more = parser.hasNextRecord();
+      } catch (IOException e) {
+        throw new CsvBugException("Unexpected exception", e);
+      }
+      advanced = true;
+    }
+    return more;
+  }
+
+  /**
+   * @return the reused row, holding the next record
+   * @throws CsvParseException
+   *           if the record is malformed or has too few fields
+   */
+  @Override
+  public CsvRow next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    advanced = false;
+    int fieldCount = columnNames.size();
+    for (int i = 0; i < fieldCount; i++) {
+      try {
+        row.set(i, parser.nextField());
+      } catch (IllegalArgumentException e) {
+        throw new CsvParseException("Failed to read data field no. " + (i + 1)
+            + " in " + source + " line " + parser.getLineNo(), e);
+      } catch (NoSuchElementException f) {
+        throw new CsvParseException("Problem with data field no. " + (i + 1) + " of "
+            + fieldCount + " in " + source + " line " + parser.getLineNo()
+            + " (Check last line of file)", f);
+      } catch (IOException e) {
+        throw new CsvBugException("Unexpected exception", e);
+      }
+    }
+    row.setLineNo(parser.getLineNo());
+    return row;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return this reader, so that it can be used in a for loop; it can only be iterated over once
+   */
+  @Override
+  public Iterator<CsvRow> iterator() {
+    return this;
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+}
@@ -1,14 +1,21 @@
 package net.pizey.csv;
 
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Vector;
 
 /**
  * A record within a CSV File.
+ * <p>
+ * The fields are held in an array, by their ordinal in the table's {@link CsvSchema}, so a column name is looked up
+ * once per operation rather than once per field. A field for a column the table does not have is held by name.
  */
 public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Cloneable {
 
@@ -18,8 +25,23 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
   /** The line number of the CSV file. */
   private int lineNo;
 
-  /** The values, keyed by name */
-  private HashMap<String, CsvField> nameToField;
+  /** The fields by ordinal, null where there is none; may be shorter than the table's schema. */
+  private CsvField[] fields;
+  /** Whether the fields array is shared with a clone, and so must be copied before a field is set or removed. */
+  private boolean fieldsShared;
+  /** The number of the table's columns when this record was made; a later column without a field reads as empty. */
+  private int knownColumns;
+
+  /** Fields for columns which the table does not have, or null. */
+  private HashMap<String, CsvField> otherFields;
+
+  /** Values not yet decoded into fields, or null. */
+  private CsvRawFields rawFields;
+  /** The ordinal of each raw field. */
+  private int[] rawOrdinals;
+
+  /** The number of times a field has been added or removed, for iterators to notice. */
+  private int modCount;
 
   /**
    * Constructor.
@@ -27,31 +49,171 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
   public CsvRecord(CsvTable table) {
     super();
     this.table = table;
-    this.nameToField = new HashMap<String, CsvField>();
+    this.fields = new CsvField[table.getSchema().size()];
+    this.knownColumns = fields.length;
+  }
+
+  /**
+   * Constructor leaving the fields to be set, for a clone, or for a record which keeps its fields elsewhere, and so
+   * overrides every method which touches them.
+   */
+  CsvRecord(CsvTable table, int lineNo) {
+    super();
+    this.table = table;
+    this.lineNo = lineNo;
+    this.knownColumns = table.getSchema().size();
+  }
+
+  /**
+   * Hold some fields undecoded, each to be decoded the first time it is asked for; a field already present takes
+   * precedence over a raw one.
+   *
+   * @param rawOrdinals
+   *          the ordinal of each raw field
+   */
+  synchronized void setRawFields(CsvRawFields rawFields, int[] rawOrdinals) {
+    this.rawFields = rawFields;
+    this.rawOrdinals = rawOrdinals;
+  }
+
+  /**
+   * @return whether some fields have not yet been decoded
+   */
+  public boolean isLazy() {
+    return rawFields != null;
+  }
+
+  /**
+   * @return the field with the ordinal, decoding or defaulting it if need be, or null
+   */
+  CsvField fieldAt(int ordinal) {
+    CsvField[] current = fields;
+    if (ordinal < current.length && current[ordinal] != null)
+      return current[ordinal];
+    if (rawFields != null || ordinal >= knownColumns)
+      return decode(ordinal);
+    return null;
+  }
+
+  /**
+   * Set the field with the ordinal, which must be for the column with that ordinal.
+   *
+   * @return the previous field
+   */
+  synchronized CsvField setField(int ordinal, CsvField field) {
+    table.recordChanging(this);
+    CsvField previous = fieldAt(ordinal);
+    ensureLength(ordinal);
+    ownFields();
+    fields[ordinal] = field;
+    if (otherFields != null && otherFields.remove(field.getColumn().getName()) != null)
+      modCount++;
+    if (previous == null)
+      modCount++;
+    return previous;
+  }
+
+  /**
+   * Lengthen the fields to the table's schema, if they do not reach the ordinal, as a column has been added since.
+   */
+  private void ensureLength(int ordinal) {
+    if (ordinal >= fields.length) {
+      CsvField[] longer = new CsvField[Math.max(ordinal + 1, table.getSchema().size())];
+      System.arraycopy(fields, 0, longer, 0, fields.length);
+      fields = longer;
+      fieldsShared = false;
+    }
+  }
+
+  private void ownFields() {
+    if (fieldsShared) {
+      fields = fields.clone();
+      fieldsShared = false;
+    }
+  }
+
+  private int rawIndexOf(int ordinal) {
+    if (rawFields != null)
+      for (int i = 0; i < rawOrdinals.length; i++)
+        if (rawOrdinals[i] == ordinal)
+          return i;
+    return -1;
+  }
+
+  /**
+   * Decode the raw field with the ordinal, or make the empty field of a column added since this record was made,
+   * unless a field for it is already present.
+   * <p>
+   * A raw field is decoded into the fields even when they are shared, as each record sharing them has the same raw
+   * fields, so would decode the same value.
+   */
+  private synchronized CsvField decode(int ordinal) {
+    if (ordinal < fields.length && fields[ordinal] != null)
+      return fields[ordinal];
+    int i = rawIndexOf(ordinal);
+    if (i != -1) {
+      CsvField field = new CsvField(table.getSchema().getColumn(ordinal), rawFields.get(i));
+      ensureLength(ordinal);
+      fields[ordinal] = field;
+      return field;
+    }
+    if (ordinal < knownColumns || ordinal >= table.getSchema().size())
+      return null;
+    CsvField field = new CsvField(table.getSchema().getColumn(ordinal), "");
+    ensureLength(ordinal);
+    ownFields();
+    fields[ordinal] = field;
+    return field;
+  }
+
+  /**
+   * Decode all the raw fields, before an operation on the whole map.
+   */
+  private synchronized void decodeAll() {
+    if (rawFields == null)
+      return;
+    for (int ordinal : rawOrdinals)
+      decode(ordinal);
+    rawFields = null;
+    rawOrdinals = null;
+  }
+
+  /**
+   * Make the empty field of each column added since this record was made, before an operation on the whole map.
+   */
+  private synchronized void settleDefaults() {
+    int columns = table.getSchema().size();
+    for (int ordinal = knownColumns; ordinal < columns; ordinal++)
+      decode(ordinal);
+    knownColumns = columns;
   }
 
   public synchronized void replaceField(CsvField oldField, CsvField newField) {
-    nameToField.put(oldField.getColumn().getName(), newField);
+    putField(oldField.getColumn().getName(), newField);
+  }
+
+  private synchronized CsvField putField(String name, CsvField field) {
+    int ordinal = table.getSchema().ordinalOf(name);
+    if (ordinal != -1)
+      return setField(ordinal, field);
+    table.recordChanging(this);
+    if (otherFields == null)
+      otherFields = new HashMap<String, CsvField>();
+    CsvField previous = otherFields.put(name, field);
+    if (previous == null)
+      modCount++;
+    return previous;
   }
 
   /**
    * Unify this record with another, adding new fields.
-   * 
+   *
    * @param unifyWithEmpty
    *          whether a filled field can unify with an empty one
    */
   public void unify(CsvRecord candidateRecord, boolean unifyWithEmpty) {
     for (CsvField candidateField : candidateRecord) {
-      if (this.nameToField.containsKey(candidateField.getColumn().getName())) {
-        CsvField currentField = nameToField.get(candidateField.getColumn().getName());
-        if (currentField.getValue().equals("") && unifyWithEmpty)
-          replaceField(currentField, candidateField);
-        else if (!currentField.getValue().equals(candidateField.getValue()))
-          throw new CsvRecordUnificationException(candidateRecord.getTable().getName(),
-              candidateRecord.getLineNo(),
-              currentField,
-              candidateField);
-      } else {
+      if (!unifyField(candidateRecord, candidateField, unifyWithEmpty)) {
         if (unifyWithEmpty) {
           getTable().addColumn(candidateField.getColumn());
           addField(candidateField);
@@ -61,6 +223,64 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
 
   }
 
+  /**
+   * Unify the candidate's fields for which this record already has a field, as {@link #unify(CsvRecord, boolean)}
+   * does, without adding any, so without changing the table.
+   *
+   * @return whether unify would also add a field to this record, and perhaps a column to the table
+   */
+  boolean unifyExistingFields(CsvRecord candidateRecord, boolean unifyWithEmpty) {
+    boolean adding = false;
+    for (CsvField candidateField : candidateRecord)
+      if (!unifyField(candidateRecord, candidateField, unifyWithEmpty))
+        adding = adding || unifyWithEmpty;
+    return adding;
+  }
+
+  /**
+   * Unify the candidate field with this record's field of the same column, if it has one.
+   *
+   * @return whether this record has a field of the column
+   */
+  private boolean unifyField(CsvRecord candidateRecord, CsvField candidateField, boolean unifyWithEmpty) {
+    if (!containsKey(candidateField.getColumn().getName()))
+      return false;
+    CsvField currentField = get(candidateField.getColumn().getName());
+    if (currentField.hasEmptyValue() && unifyWithEmpty)
+      replaceField(currentField, candidateField);
+    else if (!currentField.valueEquals(candidateField))
+      throw new CsvRecordUnificationException(candidateRecord.getTable().getName(),
+          candidateRecord.getLineNo(),
+          currentField,
+          candidateField);
+    return true;
+  }
+
+  /**
+   * Check, without changing this record, whether the candidate record can be unified with it.
+   *
+   * @return whether {@link #unify(CsvRecord, boolean)} would change this record
+   * @throws CsvRecordUnificationException
+   *           if a field of the candidate conflicts with one of this record
+   */
+  public boolean unifyChanges(CsvRecord candidateRecord, boolean unifyWithEmpty) {
+    boolean changes = false;
+    for (CsvField candidateField : candidateRecord) {
+      CsvField currentField = get(candidateField.getColumn().getName());
+      if (currentField != null) {
+        if (currentField.hasEmptyValue() && unifyWithEmpty)
+          changes = changes || !candidateField.hasEmptyValue();
+        else if (!currentField.valueEquals(candidateField))
+          throw new CsvRecordUnificationException(candidateRecord.getTable().getName(),
+              candidateRecord.getLineNo(),
+              currentField,
+              candidateField);
+      } else if (unifyWithEmpty)
+        changes = true;
+    }
+    return changes;
+  }
+
   public CsvTable getTable() {
     return table;
   }
@@ -69,7 +289,7 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
    * Add a field to this record.
    */
   public synchronized CsvField addField(CsvField field) {
-    return nameToField.put(field.getColumn().getName(), field);
+    return putField(field.getColumn().getName(), field);
   }
 
   public int getLineNo() {
@@ -77,21 +297,50 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
   }
 
   public void setLineNo(int lineNo) {
+    table.recordChanging(this);
     this.lineNo = lineNo;
   }
 
+  /**
+   * @return the fields in the order of the table's columns, null where the record has no field for a column; fails if
+   *         the table's columns change meanwhile
+   */
   @Override
   public Iterator<CsvField> iterator() {
-    Vector<CsvField> fieldsReversed = new Vector<CsvField>();
-    for (CsvColumn column : getTable().getColumnsInOrder()) {
-      fieldsReversed.add(nameToField.get(column.getName()));
-    }
-    return fieldsReversed.iterator();
+    final CsvSchema schema = getTable().getSchema();
+    return new Iterator<CsvField>() {
+      private int position = 0;
+
+      @Override
+      public boolean hasNext() {
+        return position < schema.size();
+      }
+
+      @Override
+      public CsvField next() {
+        if (getTable().getSchema() != schema)
+          throw new ConcurrentModificationException();
+        if (!hasNext())
+          throw new NoSuchElementException();
+        return fieldAt(schema.getOrdinal(position++));
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
   @Override
   public CsvField get(Object string) {
-    return nameToField.get(string);
+    int ordinal = table.getSchema().ordinalOf(string);
+    if (ordinal != -1) {
+      CsvField field = fieldAt(ordinal);
+      if (field != null)
+        return field;
+    }
+    return otherFields == null ? null : otherFields.get(string);
   }
 
   /** Would lead to invalid Tables */
@@ -101,28 +350,88 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
   }
 
   @Override
-  public boolean containsKey(Object key) {
-    return nameToField.containsKey(key);
+  public synchronized boolean containsKey(Object key) {
+    int ordinal = table.getSchema().ordinalOf(key);
+    if (ordinal != -1
+        && ((ordinal < fields.length && fields[ordinal] != null) || ordinal >= knownColumns
+            || rawIndexOf(ordinal) != -1))
+      return true;
+    return otherFields != null && otherFields.containsKey(key);
   }
 
   @Override
   public boolean containsValue(Object value) {
-    return nameToField.containsValue(value);
+    for (CsvField field : values())
+      if (field.equals(value))
+        return true;
+    return false;
   }
 
   @Override
   public Set<java.util.Map.Entry<String, CsvField>> entrySet() {
-    return nameToField.entrySet();
+    return new AbstractSet<Map.Entry<String, CsvField>>() {
+      @Override
+      public Iterator<Map.Entry<String, CsvField>> iterator() {
+        return new FieldIterator<Map.Entry<String, CsvField>>() {
+          @Override
+          Map.Entry<String, CsvField> element(final String name, CsvField field) {
+            return new AbstractMap.SimpleEntry<String, CsvField>(name, field) {
+              private static final long serialVersionUID = 1L;
+
+              @Override
+              public CsvField setValue(CsvField value) {
+                put(name, value);
+                return super.setValue(value);
+              }
+            };
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        if (!(o instanceof Map.Entry))
+          return false;
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        CsvField field = get(entry.getKey());
+        return field != null && field.equals(entry.getValue());
+      }
+
+      @Override
+      public int size() {
+        return CsvRecord.this.size();
+      }
+    };
   }
 
   @Override
   public boolean isEmpty() {
-    return nameToField.isEmpty();
+    return size() == 0;
   }
 
   @Override
   public Set<String> keySet() {
-    return nameToField.keySet();
+    return new AbstractSet<String>() {
+      @Override
+      public Iterator<String> iterator() {
+        return new FieldIterator<String>() {
+          @Override
+          String element(String name, CsvField field) {
+            return name;
+          }
+        };
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+
+      @Override
+      public int size() {
+        return CsvRecord.this.size();
+      }
+    };
   }
 
   @Override
@@ -142,18 +451,56 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
   }
 
   @Override
-  public CsvField remove(Object key) {
-    return nameToField.remove(key);
+  public synchronized CsvField remove(Object key) {
+    table.recordChanging(this);
+    decodeAll();
+    settleDefaults();
+    int ordinal = table.getSchema().ordinalOf(key);
+    if (ordinal != -1 && ordinal < fields.length && fields[ordinal] != null) {
+      CsvField removed = fields[ordinal];
+      ownFields();
+      fields[ordinal] = null;
+      modCount++;
+      return removed;
+    }
+    CsvField removed = otherFields == null ? null : otherFields.remove(key);
+    if (removed != null)
+      modCount++;
+    return removed;
   }
 
   @Override
-  public int size() {
-    return nameToField.size();
+  public synchronized int size() {
+    int size = otherFields == null ? 0 : otherFields.size();
+    for (int ordinal = 0; ordinal < fields.length; ordinal++)
+      if (fields[ordinal] != null || ordinal >= knownColumns)
+        size++;
+    size += Math.max(0, table.getSchema().size() - Math.max(fields.length, knownColumns));
+    if (rawFields != null)
+      for (int ordinal : rawOrdinals)
+        if (ordinal >= fields.length || fields[ordinal] == null)
+          size++;
+    return size;
   }
 
   @Override
   public Collection<CsvField> values() {
-    return nameToField.values();
+    return new AbstractCollection<CsvField>() {
+      @Override
+      public Iterator<CsvField> iterator() {
+        return new FieldIterator<CsvField>() {
+          @Override
+          CsvField element(String name, CsvField field) {
+            return field;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return CsvRecord.this.size();
+      }
+    };
   }
 
   public String toJSON() {
@@ -184,23 +531,38 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
   }
 
   /**
-   * A clone which will produce an invalid CsvTable if added back, unaltered to its original table.
+   * A clone which will produce an invalid CsvTable if added back, unaltered to its original table. Setting or removing
+   * a field of either record leaves the other as it was, though the two hold the same CsvField objects.
    */
   public CsvRecord clone(CsvTable table) {
-    CsvRecord newRecord = new CsvRecord(table);
-    for (CsvField field : this) {
-      newRecord.addField(field);
+    synchronized (this) {
+      if (fields != null && table.getSchema().extendsSchema(getTable().getSchema())) {
+        // Same ordinals, so the fields are shared until either record changes them; raw fields never change
+        CsvRecord newRecord = new CsvRecord(table, getLineNo());
+        newRecord.fields = fields;
+        newRecord.fieldsShared = true;
+        newRecord.knownColumns = knownColumns;
+        fieldsShared = true;
+        newRecord.setRawFields(rawFields, rawOrdinals);
+        if (otherFields != null)
+          for (CsvField field : otherFields.values())
+            newRecord.addField(field);
+        return newRecord;
+      }
+      CsvRecord newRecord = new CsvRecord(table);
+      for (CsvField field : values())
+        newRecord.addField(field);
+      newRecord.setLineNo(getLineNo());
+      return newRecord;
     }
-    newRecord.setLineNo(this.lineNo);
-    return newRecord;
   }
 
   @Override
   public int hashCode() {
     final int prime = 31;
     int result = 1;
-    result = prime * result + lineNo;
-    result = prime * result + nameToField.hashCode();
+    result = prime * result + getLineNo();
+    result = prime * result + entrySet().hashCode();
     result = prime * result + table.getName().hashCode();
     result = prime * result + table.getColumnsInOrder().hashCode();
     return result;
@@ -212,12 +574,12 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
       return true;
     if (obj == null)
       return false;
-    if (getClass() != obj.getClass())
+    if (!(obj instanceof CsvRecord))
       return false;
     CsvRecord other = (CsvRecord) obj;
-    if (lineNo != other.lineNo)
+    if (getLineNo() != other.getLineNo())
       return false;
-    if (!nameToField.equals(other.nameToField))
+    if (!entrySet().equals(other.entrySet()))
       return false;
     if (!table.getName().equals(other.table.getName()))
       return false;
@@ -235,4 +597,66 @@ public class CsvRecord implements Iterable<CsvField>, Map<String, CsvField>, Clo
 
     return f.getValue();
   }
+
+  /**
+   * Iterates over the fields by ordinal, then those for other columns, decoding any raw fields first.
+   */
+  private abstract class FieldIterator<E> implements Iterator<E> {
+    private int ordinal = -1;
+    private Iterator<Map.Entry<String, CsvField>> others;
+    private String lastName;
+    private int expectedModCount;
+
+    FieldIterator() {
+      decodeAll();
+      settleDefaults();
+      expectedModCount = modCount;
+      advance();
+    }
+
+    abstract E element(String name, CsvField field);
+
+    private void advance() {
+      ordinal++;
+      while (ordinal < fields.length && fields[ordinal] == null)
+        ordinal++;
+      if (ordinal == fields.length && others == null && otherFields != null)
+        others = otherFields.entrySet().iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return ordinal < fields.length || (others != null && others.hasNext());
+    }
+
+    @Override
+    public E next() {
+      if (modCount != expectedModCount)
+        throw new ConcurrentModificationException();
+      if (ordinal < fields.length) {
+        CsvField field = fields[ordinal];
+        lastName = table.getSchema().getColumn(ordinal).getName();
+        advance();
+        return element(lastName, field);
+      }
+      if (others == null)
+        throw new NoSuchElementException();
+      Map.Entry<String, CsvField> other = others.next();
+      lastName = null;
+      return element(other.getKey(), other.getValue());
+    }
+
+    @Override
+    public void remove() {
+      if (lastName != null)
+        CsvRecord.this.remove(lastName);
+      else if (others != null) {
+        table.recordChanging(CsvRecord.this);
+        others.remove();
+        modCount++;
+      } else
+        throw new IllegalStateException();
+      expectedModCount = modCount;
+    }
+  }
 }
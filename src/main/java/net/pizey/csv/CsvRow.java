@@ -0,0 +1,99 @@
+package net.pizey.csv;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The raw field values of the record a parser is positioned at, by column name.
+ * <p>
+ * A CsvRow is a reusable view: it is refilled for each record read, so it must not be held on to.
+ */
+public class CsvRow {
+
+  private List<String> columnNames;
+  private HashMap<String, Integer> nameToIndex;
+  private String[] values;
+  private int lineNo;
+  private CsvRawFields rawFields;
+
+  /**
+   * @param columnNames
+   *          the names of the fields of each record, in file order
+   */
+  public CsvRow(List<String> columnNames) {
+    super();
+    this.columnNames = Collections.unmodifiableList(columnNames);
+    this.nameToIndex = new HashMap<String, Integer>();
+    for (int i = 0; i < columnNames.size(); i++)
+      nameToIndex.put(columnNames.get(i), i);
+    this.values = new String[columnNames.size()];
+  }
+
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * @return the value of the field in file position index, null if it was not read
+   */
+  public String get(int index) {
+    return values[index];
+  }
+
+  /**
+   * @return the value of the named field, null if there is no such column or it was not read
+   */
+  public String get(String columnName) {
+    Integer index = nameToIndex.get(columnName);
+    return index == null ? null : values[index];
+  }
+
+  /**
+   * @return the index of the named column, or -1 if there is no such column
+   */
+  public int indexOf(String columnName) {
+    Integer index = nameToIndex.get(columnName);
+    return index == null ? -1 : index;
+  }
+
+  void set(int index, String value) {
+    values[index] = value;
+  }
+
+  /**
+   * @return the fields read without being decoded, reused for each record
+   */
+  CsvRawFields getRawFields() {
+    if (rawFields == null)
+      rawFields = new CsvRawFields();
+    return rawFields;
+  }
+
+  /**
+   * @return the line number of the end of the record
+   */
+  public int getLineNo() {
+    return lineNo;
+  }
+
+  void setLineNo(int lineNo) {
+    this.lineNo = lineNo;
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer returnStringBuffer = new StringBuffer();
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0)
+        returnStringBuffer.append(',');
+      if (values[i] != null)
+        returnStringBuffer.append(values[i]);
+    }
+    return returnStringBuffer.toString();
+  }
+}
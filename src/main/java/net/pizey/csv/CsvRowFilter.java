@@ -0,0 +1,24 @@
+package net.pizey.csv;
+
+import java.util.Collection;
+
+/**
+ * A test applied to each row as it is loaded, before a CsvRecord is created for it.
+ * <p>
+ * A filter used with {@link IngestionOptions#PARALLEL} is called from several threads at once.
+ */
+public interface CsvRowFilter {
+
+  /**
+   * @return the names of the columns the filter looks at, which are read even if they are not kept
+   */
+  Collection<String> getColumnNames();
+
+  /**
+   * @param row
+   *          the raw values of the row being loaded, only valid for the duration of the call
+   * @return whether to load the row
+   */
+  boolean accept(CsvRow row);
+
+}
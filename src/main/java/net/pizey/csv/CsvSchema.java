@@ -0,0 +1,118 @@
+package net.pizey.csv;
+
+import java.util.HashMap;
+
+/**
+ * The columns of a table, each with a fixed ordinal by which records hold their fields.
+ * <p>
+ * A schema is never changed: adding a column or moving one to the front gives a new schema, in which the existing
+ * columns keep their ordinals, so records made under an earlier schema of the same table remain valid. The ordinals
+ * are in the order the columns were added, which is not necessarily the order in which they are shown.
+ */
+public final class CsvSchema {
+
+  public static final CsvSchema EMPTY = new CsvSchema(new CsvColumn[0], new int[0],
+      new HashMap<String, Integer>());
+
+  /** The columns, by ordinal. */
+  private final CsvColumn[] columns;
+  /** The ordinals of the columns, in the order they are shown. */
+  private final int[] order;
+  private final HashMap<String, Integer> nameToOrdinal;
+
+  private CsvSchema(CsvColumn[] columns, int[] order, HashMap<String, Integer> nameToOrdinal) {
+    super();
+    this.columns = columns;
+    this.order = order;
+    this.nameToOrdinal = nameToOrdinal;
+  }
+
+  /**
+   * @return the number of columns
+   */
+  public int size() {
+    return columns.length;
+  }
+
+  /**
+   * @return the ordinal of the named column, or -1 if there is no such column
+   */
+  public int ordinalOf(Object columnName) {
+    Integer ordinal = nameToOrdinal.get(columnName);
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  public CsvColumn getColumn(int ordinal) {
+    return columns[ordinal];
+  }
+
+  /**
+   * @return the ordinal of the column shown at position
+   */
+  public int getOrdinal(int position) {
+    return order[position];
+  }
+
+  /**
+   * @return whether this schema has every column of the other at the same ordinal, as when it was made from it by
+   *         adding and moving columns
+   */
+  public boolean extendsSchema(CsvSchema other) {
+    if (other == this)
+      return true;
+    if (other.columns.length > columns.length)
+      return false;
+    for (int ordinal = 0; ordinal < other.columns.length; ordinal++)
+      if (!other.columns[ordinal].getName().equals(columns[ordinal].getName()))
+        return false;
+    return true;
+  }
+
+  /**
+   * @return a schema with the column added at the end, or replacing the column of the same name
+   */
+  public CsvSchema withColumn(CsvColumn column) {
+    int existing = ordinalOf(column.getName());
+    if (existing != -1) {
+      CsvColumn[] replaced = columns.clone();
+      replaced[existing] = column;
+      return new CsvSchema(replaced, order, nameToOrdinal);
+    }
+    CsvColumn[] added = new CsvColumn[columns.length + 1];
+    System.arraycopy(columns, 0, added, 0, columns.length);
+    added[columns.length] = column;
+    int[] newOrder = new int[order.length + 1];
+    System.arraycopy(order, 0, newOrder, 0, order.length);
+    newOrder[order.length] = columns.length;
+    HashMap<String, Integer> newNameToOrdinal = new HashMap<String, Integer>(nameToOrdinal);
+    newNameToOrdinal.put(column.getName(), columns.length);
+    return new CsvSchema(added, newOrder, newNameToOrdinal);
+  }
+
+  /**
+   * @return a schema with the named column shown first
+   */
+  public CsvSchema withFirst(String columnName) {
+    int first = ordinalOf(columnName);
+    if (first == -1)
+      throw new CsvColumnNotFoundException("Column " + columnName + " not found");
+    int[] newOrder = new int[order.length];
+    newOrder[0] = first;
+    int position = 1;
+    for (int ordinal : order)
+      if (ordinal != first)
+        newOrder[position++] = ordinal;
+    return new CsvSchema(columns, newOrder, nameToOrdinal);
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer returnStringBuffer = new StringBuffer();
+    for (int ordinal : order) {
+      if (returnStringBuffer.length() > 0)
+        returnStringBuffer.append(',');
+      returnStringBuffer.append(columns[ordinal]);
+    }
+    return returnStringBuffer.toString();
+  }
+}
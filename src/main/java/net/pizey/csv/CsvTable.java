@@ -1,18 +1,20 @@
 package net.pizey.csv;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Function;
 
 /**
  * A representation of a CSV file.
@@ -26,15 +28,40 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
 
   private UnificationOptions unificationOption;
 
+  private IngestionOptions ingestionOption;
+
+  private StorageOptions storageOption;
+
   private HashMap<String, CsvColumn> nameToColumn;
   private ArrayList<CsvColumn> columnsInOrder;
+  private CsvSchema schema;
   private CsvColumn primaryKeyColumn;
 
-  private HashMap<String, CsvRecord> keyToRecord;
-  private ArrayList<String> keys;
+  private Map<String, CsvRecord> keyToRecord;
+  private CsvKeyList keys;
 
   private String primaryKeyName;
 
+  /** Names of the columns to load, as well as the primary key, or null for all. */
+  private Collection<String> keptColumnNames;
+  /** The column each named field of the file is loaded into, null if it is not kept. */
+  private ArrayList<CsvColumn> loadColumns;
+  /** The name of each named field of the file. */
+  private ArrayList<String> fileColumnNames;
+  /** Whether each named field of the file is read, as it is kept or the filter looks at it. */
+  private boolean[] readFields;
+  /** The dictionary the values of each named field of the file are interned in, null if they are not. */
+  private CsvColumnDictionary[] dictionaries;
+  /** Rows which it rejects are not loaded, may be null. */
+  private CsvRowFilter rowFilter;
+  private CsvRow loadRow;
+  /** Whether each named field of the file is kept undecoded, when storage is LAZY. */
+  private boolean[] rawFields;
+  /** The ordinal of the column each named field of the file is loaded into, -1 if it is not kept. */
+  private int[] loadOrdinals;
+  /** The ordinals of the fields kept undecoded, in file order. */
+  private int[] rawOrdinals;
+
   public CsvTable(String fileName) {
     this(new File(fileName), null);
   }
@@ -56,34 +83,115 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
   }
 
   public CsvTable(File file, String primeKeyName, UnificationOptions unificationOption) {
+    this(file, primeKeyName, unificationOption, IngestionOptions.READER);
+  }
+
+  public CsvTable(File file, String primeKeyName, UnificationOptions unificationOption,
+      IngestionOptions ingestionOption) {
+    this(file, primeKeyName, unificationOption, ingestionOption, null);
+  }
+
+  /**
+   * @param keptColumnNames
+   *          the columns to load, the primary key column is always loaded; null to load every column
+   */
+  public CsvTable(File file, String primeKeyName, UnificationOptions unificationOption,
+      IngestionOptions ingestionOption, Collection<String> keptColumnNames) {
+    this(file, primeKeyName, unificationOption, ingestionOption, keptColumnNames, null);
+  }
+
+  /**
+   * @param keptColumnNames
+   *          the columns to load, the primary key column is always loaded; null to load every column
+   * @param rowFilter
+   *          only rows which this accepts are loaded; null to load every row
+   */
+  public CsvTable(File file, String primeKeyName, UnificationOptions unificationOption,
+      IngestionOptions ingestionOption, Collection<String> keptColumnNames, CsvRowFilter rowFilter) {
+    this(file, primeKeyName, unificationOption, ingestionOption, keptColumnNames, rowFilter,
+        StorageOptions.EAGER);
+  }
+
+  /**
+   * @param keptColumnNames
+   *          the columns to load, the primary key column is always loaded; null to load every column
+   * @param rowFilter
+   *          only rows which this accepts are loaded; null to load every row
+   * @param storageOption
+   *          whether to decode values as they are loaded or when they are first asked for
+   */
+  public CsvTable(File file, String primeKeyName, UnificationOptions unificationOption,
+      IngestionOptions ingestionOption, Collection<String> keptColumnNames, CsvRowFilter rowFilter,
+      StorageOptions storageOption) {
     super();
     this.dataFile = file;
     this.name = removeExtension(file.getName());
     this.unificationOption = unificationOption;
+    this.ingestionOption = ingestionOption;
+    this.storageOption = storageOption;
     this.nameToColumn = new HashMap<String, CsvColumn>();
     this.columnsInOrder = new ArrayList<CsvColumn>();
+    this.schema = CsvSchema.EMPTY;
     this.primaryKeyName = primeKeyName;
     this.primaryKeyColumn = null; // Set in load()
-    this.keyToRecord = new HashMap<String, CsvRecord>();
-    this.keys = new ArrayList<String>();
-    BufferedReader reader = null;
+    this.keys = newKeys();
+    this.keyToRecord = newKeyToRecord(keys);
+    this.keptColumnNames = keptColumnNames;
+    this.loadColumns = new ArrayList<CsvColumn>();
+    this.fileColumnNames = new ArrayList<String>();
+    this.rowFilter = rowFilter;
     try {
-      reader = new BufferedReader(new FileReader(this.dataFile));
-      load(new CsvFileParser(reader));
-      reader.close();
+      if (ingestionOption == IngestionOptions.PARALLEL && !CsvParsers.isGzipped(this.dataFile))
+        new CsvParallelLoader(this).load(this.dataFile);
+      else {
+        CsvParser parser = CsvParsers.open(this.dataFile, ingestionOption);
+        try {
+          load(parser);
+        } finally {
+          parser.close();
+        }
+      }
+      for (CsvColumnDictionary dictionary : dictionaries)
+        if (dictionary != null)
+          dictionary.release();
     } catch (IOException e) {
       // Naughty me, FileNotFoundException is provocable,
-      // BufferedReader.close exception is not,
+      // CsvParser.close exception is not,
       // so shared for code coverage win.
       throw new CsvBugException("Unexpected exception", e);
     }
   }
 
+  /**
+   * An empty table with the columns named by the header line the parser is before, from which records may then be read
+   * one at a time with {@link #loadRecord(CsvParser)}.
+   */
+  private CsvTable(File file, CsvParser parser, String primeKeyName, UnificationOptions unificationOption)
+      throws IOException {
+    super();
+    this.dataFile = file;
+    this.name = removeExtension(file.getName());
+    this.unificationOption = unificationOption;
+    this.ingestionOption = IngestionOptions.READER;
+    this.storageOption = StorageOptions.EAGER;
+    this.nameToColumn = new HashMap<String, CsvColumn>();
+    this.columnsInOrder = new ArrayList<CsvColumn>();
+    this.schema = CsvSchema.EMPTY;
+    this.primaryKeyName = primeKeyName;
+    this.keys = newKeys();
+    this.keyToRecord = newKeyToRecord(keys);
+    this.loadColumns = new ArrayList<CsvColumn>();
+    this.fileColumnNames = new ArrayList<String>();
+    defineColumns(parser, primeKeyName);
+  }
+
   public CsvTable(CsvTable other) {
     super();
     this.dataFile = other.dataFile;
     this.name = other.getName();
     this.unificationOption = other.unificationOption;
+    this.ingestionOption = other.ingestionOption;
+    this.storageOption = other.storageOption;
 
     this.nameToColumn = new HashMap<String, CsvColumn>();
     for (Entry<String, CsvColumn> e : other.nameToColumn.entrySet()) {
@@ -92,14 +200,30 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
     this.columnsInOrder = new ArrayList<CsvColumn>();
     for (CsvColumn c : other.columnsInOrder)
       this.columnsInOrder.add(c);
+    this.schema = other.schema;
     this.primaryKeyColumn = other.primaryKeyColumn;
-    this.keys = new ArrayList<String>();
-    this.keyToRecord = new HashMap<String, CsvRecord>();
-    for (String key : other.keys) {
-      this.keys.add(key);
-      this.keyToRecord.put(key, other.get(key).clone(this));
+    this.keptColumnNames = other.keptColumnNames;
+    this.loadColumns = other.loadColumns;
+    this.fileColumnNames = other.fileColumnNames;
+    this.readFields = other.readFields;
+    this.dictionaries = other.dictionaries;
+    this.rawFields = other.rawFields;
+    this.loadOrdinals = other.loadOrdinals;
+    this.rawOrdinals = other.rawOrdinals;
+    this.rowFilter = other.rowFilter;
+    if (storageOption == StorageOptions.COLUMNAR) {
+      // Columns are shared, each chunk copied when first written by either table
+      this.keys = new CsvKeyIndex((CsvKeyIndex) other.keys, this);
+      this.keyToRecord = new CsvColumnStore((CsvColumnStore) other.keyToRecord, this);
+    } else if (isByteStored()) {
+      // Buffers are shared, each chunk copied when first written by either table
+      this.keys = new CsvByteStore((CsvByteStore) other.keys);
+      this.keyToRecord = newKeyToRecord(keys);
+    } else {
+      // Records are shared, each chunk cloned when first touched by this table or about to be changed by the other
+      this.keys = new CsvKeyIndex((CsvKeyIndex) other.keys, this);
+      this.keyToRecord = newKeyToRecord(keys);
     }
-
   }
 
   /**
@@ -110,7 +234,7 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
    * @throws CSVWriteDownException
    * @throws NoPrimaryKeyInCSVTableException
    */
-  private void load(CsvFileParser parser) throws IOException {
+  private void load(CsvParser parser) throws IOException {
 
     defineColumns(parser, this.primaryKeyName);
     CsvRecord record;
@@ -126,37 +250,121 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
    * 
    * @param primeKeyName
    *          Optional key name
-   * 
+   * @throws CsvColumnNotFoundException
+   *           if a column to be kept, or filtered on, is not in the file
    */
-  private void defineColumns(CsvFileParser parser, String primeKeyName) throws IOException {
+  private void defineColumns(CsvParser parser, String primeKeyName) throws IOException {
     parser.hasNextRecord(); // FIXME relying upon side effect
 
     while (parser.recordHasMoreFields()) {
       String colName = parser.nextField();
       // If no primeKeyName specified then first column is key
       if (!colName.equals("")) {
+        fileColumnNames.add(colName);
         boolean isPrimeKey = primeKeyName == null ?
-            columnsInOrder.size() == 0 : colName.equals(this.primaryKeyName);
-        CsvColumn column = new CsvColumn(colName, isPrimeKey);
-        if (column.isPrimaryKey())
-          primaryKeyColumn = column;
-        addColumn(column);
+            loadColumns.size() == 0 : colName.equals(this.primaryKeyName);
+        if (isPrimeKey || keptColumnNames == null || keptColumnNames.contains(colName)) {
+          CsvColumn column = new CsvColumn(colName, isPrimeKey);
+          if (column.isPrimaryKey())
+            primaryKeyColumn = column;
+          addColumn(column);
+          loadColumns.add(column);
+        } else
+          loadColumns.add(null);
       }
     }
+    if (keptColumnNames != null)
+      for (String keptColumnName : keptColumnNames)
+        if (!hasColumn(keptColumnName))
+          throw new CsvColumnNotFoundException("Column " + keptColumnName + " not found in "
+              + dataFile);
+    readFields = new boolean[loadColumns.size()];
+    dictionaries = new CsvColumnDictionary[loadColumns.size()];
+    for (int i = 0; i < readFields.length; i++) {
+      CsvColumn column = loadColumns.get(i);
+      readFields[i] = column != null;
+      // Values held as bytes gain nothing from sharing Strings
+      if (column != null && !column.isPrimaryKey() && !isByteStored())
+        dictionaries[i] = new CsvColumnDictionary(column.getName());
+    }
+    rawFields = new boolean[loadColumns.size()];
+    if (storageOption == StorageOptions.LAZY)
+      for (int i = 0; i < rawFields.length; i++)
+        rawFields[i] = readFields[i] && !loadColumns.get(i).isPrimaryKey();
+    if (rowFilter != null)
+      for (String filteredColumnName : rowFilter.getColumnNames()) {
+        int i = fileColumnNames.indexOf(filteredColumnName);
+        if (i == -1)
+          throw new CsvColumnNotFoundException("Column " + filteredColumnName + " not found in "
+              + dataFile);
+        readFields[i] = true;
+        rawFields[i] = false;
+      }
+    loadOrdinals = new int[loadColumns.size()];
+    int rawCount = 0;
+    for (int i = 0; i < loadOrdinals.length; i++) {
+      loadOrdinals[i] = loadColumns.get(i) == null ? -1 : schema.ordinalOf(loadColumns.get(i).getName());
+      if (rawFields[i])
+        rawCount++;
+    }
+    rawOrdinals = new int[rawCount];
+    rawCount = 0;
+    for (int i = 0; i < rawFields.length; i++)
+      if (rawFields[i])
+        rawOrdinals[rawCount++] = loadOrdinals[i];
+  }
+
+  void defineColumns(CsvParser parser) throws IOException {
+    defineColumns(parser, this.primaryKeyName);
+  }
+
+  /**
+   * @return empty keys suiting the storage option, which for OFF_HEAP and ARENA hold the records too
+   */
+  private CsvKeyList newKeys() {
+    if (isByteStored())
+      return new CsvByteStore(storageOption == StorageOptions.OFF_HEAP);
+    return new CsvKeyIndex();
+  }
+
+  private boolean isByteStored() {
+    return storageOption == StorageOptions.OFF_HEAP || storageOption == StorageOptions.ARENA;
   }
 
+  /**
+   * @return a map from key to record, suiting the storage option, which for all but COLUMNAR is held in the keys
+   */
+  private Map<String, CsvRecord> newKeyToRecord(CsvKeyList index) {
+    if (storageOption == StorageOptions.COLUMNAR)
+      return new CsvColumnStore(this);
+    return index.asMap(this);
+  }
+
+  /**
+   * Add a column, which records already in the table read as empty until they are given a value for it.
+   */
   public void addColumn(CsvColumn column) {
+    releaseRecords();
     columnsInOrder.add(column);
+    schema = schema.withColumn(column);
     nameToColumn.put(column.getName(), column);
-    for (CsvRecord r : this) {
-      r.put(column.getName(), new CsvField(column, ""));
-    }
+    if (storageOption == StorageOptions.COLUMNAR)
+      ((CsvColumnStore) keyToRecord).addColumn(column);
+    else if (isByteStored())
+      ((CsvByteStore) keys).addColumn(column);
   }
 
   public String getName() {
     return this.name;
   }
 
+  /**
+   * @return the columns, with the ordinals by which this table's records hold their fields
+   */
+  public CsvSchema getSchema() {
+    return schema;
+  }
+
   public CsvColumn getPrimaryKeyColumn() {
     return primaryKeyColumn;
   }
@@ -169,59 +377,151 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
     return unificationOption;
   }
 
+  public IngestionOptions getIngestionOption() {
+    return ingestionOption;
+  }
+
+  public StorageOptions getStorageOption() {
+    return storageOption;
+  }
+
   public HashMap<String, CsvColumn> getNameToColumn() {
     return nameToColumn;
   }
 
-  public HashMap<String, CsvRecord> getKeyToRecord() {
+  public Map<String, CsvRecord> getKeyToRecord() {
     return keyToRecord;
   }
 
-  public ArrayList<String> getKeys() {
+  /**
+   * @return the keys in the order their records were added, which cannot be changed, nor cleared, through this list
+   */
+  public List<String> getKeys() {
     return keys;
   }
 
+  /**
+   * @return the dictionary the named column's values were interned in whilst loading, null if they were not
+   */
+  public CsvColumnDictionary getDictionary(String columnName) {
+    int i = fileColumnNames.indexOf(columnName);
+    return i == -1 ? null : dictionaries[i];
+  }
+
+  /**
+   * @return an estimate of the heap saved by sharing repeated values whilst loading
+   */
+  public long getDictionarySavedBytes() {
+    long saved = 0;
+    for (CsvColumnDictionary dictionary : dictionaries)
+      if (dictionary != null)
+        saved += dictionary.getSavedBytes();
+    return saved;
+  }
+
   /**
    * Reads the file until is has seen an object's-worth of field values (ie until it sees an EOF or a line starting with
    * '$') which it returns in a CsvRecord (null if there are no field values).
    * 
    * @return a new CSVRecord
    */
-  public CsvRecord loadRecord(CsvFileParser parser) throws IOException {
+  public CsvRecord loadRecord(CsvParser parser) throws IOException {
+    if (loadRow == null)
+      loadRow = newRow();
     // FIXME relying on side effect
-    if (!parser.hasNextRecord())
-      return null;
+    while (parser.hasNextRecord()) {
+      CsvRecord record = readRecord(parser, loadRow, true);
+      if (record != null)
+        return record;
+    }
+    return null;
+  }
 
-    String value = null;
-    CsvRecord record = new CsvRecord(this);
-    for (int i = 0; i < columnsInOrder.size(); i++) {
+  /**
+   * @return a row to read records into, for the sole use of one thread
+   */
+  CsvRow newRow() {
+    return new CsvRow(fileColumnNames);
+  }
+
+  /**
+   * Read the fields of the record the parser is positioned at into the row, skipping those which are not needed, and
+   * create a record from them if the filter accepts the row. This only reads the table's columns, and the dictionaries
+   * are thread safe, so it may be called from several threads at once, each with its own row.
+   * 
+   * @param intern
+   *          whether to share repeated values through the dictionaries now, rather than later through
+   *          {@link #intern(CsvRecord)} once the record is known to be wanted
+   * @return a new CsvRecord, or null if the row is rejected by the filter
+   */
+  CsvRecord readRecord(CsvParser parser, CsvRow row, boolean intern) throws IOException {
+    CsvRawFields raw = row.getRawFields();
+    raw.clear();
+    for (int i = 0; i < readFields.length; i++) {
       try {
-        value = parser.nextField();
+        if (rawFields[i])
+          parser.nextRawField(raw);
+        else if (readFields[i])
+          row.set(i, parser.nextField());
+        else
+          parser.skipField();
       } catch (IllegalArgumentException e) {
         throw new CsvParseException("Failed to read data field no. " + (i + 1)
             + " in " + dataFile + " line " + parser.getLineNo(), e);
       } catch (NoSuchElementException f) {
         String message = "Problem with data field no. " + (i + 1) + " of "
-            + columnsInOrder.size() + " in " + dataFile + " line "
+            + loadColumns.size() + " in " + dataFile + " line "
             + parser.getLineNo();
         message += " (Check last line of file)";
         throw new CsvParseException(message, f);
       }
-      CsvColumn col = (CsvColumn) columnsInOrder.get(i);
-      record.addField(new CsvField(col, value));
     }
-    record.setLineNo(parser.getLineNo());
+    row.setLineNo(parser.getLineNo());
+    if (rowFilter != null && !rowFilter.accept(row))
+      return null;
+    CsvRecord record = new CsvRecord(this);
+    for (int i = 0; i < readFields.length; i++) {
+      CsvColumn col = loadColumns.get(i);
+      if (col != null && !rawFields[i]) {
+        CsvColumnDictionary dictionary = dictionaries[i];
+        record.setField(loadOrdinals[i],
+            new CsvField(col, dictionary == null || !intern ? row.get(i) : dictionary.intern(row.get(i))));
+      }
+    }
+    if (raw.size() > 0)
+      record.setRawFields(raw.copy(), rawOrdinals);
+    record.setLineNo(row.getLineNo());
     return record;
   }
 
+  /**
+   * Share the values of a record read without interning them through the dictionaries.
+   */
+  void intern(CsvRecord record) {
+    for (int i = 0; i < readFields.length; i++) {
+      CsvColumnDictionary dictionary = dictionaries[i];
+      if (dictionary != null && !rawFields[i]) {
+        CsvField field = record.fieldAt(loadOrdinals[i]);
+        field.setValue(dictionary.intern(field.getValue()));
+      }
+    }
+  }
+
   /** Add defaulted values, discard unknown fields */
   public CsvRecord addMissingFields(CsvRecord record) {
-    CsvRecord csvRecord = new CsvRecord(this);
-    csvRecord.addField(new CsvField(
-        record.getTable().getPrimaryKeyColumn(), record.getPrimaryKey()));
+    CsvRecord csvRecord;
+    // Undecoded fields of one of this table's records are shared rather than decoded
+    if (record.isLazy() && record.getTable() == this)
+      csvRecord = record.clone(this);
+    else {
+      csvRecord = new CsvRecord(this);
+      csvRecord.addField(new CsvField(
+          record.getTable().getPrimaryKeyColumn(), record.getPrimaryKey()));
+    }
 
     for (CsvColumn column : columnsInOrder) {
-      if (!column.getName().equals(record.getTable().getPrimaryKeyColumn().getName())) {
+      if (!column.getName().equals(record.getTable().getPrimaryKeyColumn().getName())
+          && !csvRecord.containsKey(column.getName())) {
         csvRecord.addField(new CsvField(column,
             record.containsKey(column.getName()) ? record.get(column.getName()).getValue() : ""));
       }
@@ -230,33 +530,208 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
     return csvRecord;
   }
 
+  /**
+   * Unify the candidate table with a copy of this one, which shares this table's records except those the candidate
+   * changes.
+   */
   public CsvTable unify(CsvTable candidateTable, boolean unifyWithEmpty) {
     CsvTable unified = new CsvTable(this);
-    for (CsvRecord candidateRecord : candidateTable.values()) {
-      CsvRecord currentRecord = unified.get(candidateRecord.getPrimaryKey());
-      if (currentRecord == null) {
-        String message = "Record not found in " + unified.name
-            + " with key equal " + candidateRecord.getPrimaryKey()
-            + " from line " + candidateRecord.getLineNo() + " in file "
-            + candidateTable.name;
-        switch (unificationOption) {
-        case THROW:
-          throw new CsvRecordNotFoundException(message);
-        case LOG:
-          System.err.println(message);
-          break;
-        case DEFAULT:
-          candidateRecord = unified.addMissingFields(candidateRecord);
-          unified.add(candidateRecord);
-          break;
-        }
-      } else
-        currentRecord.unify(candidateRecord, unifyWithEmpty);
+    unified.unifyRecords(candidateTable, unifyWithEmpty);
+    return unified;
+  }
+
+  /**
+   * Unify each candidate table in turn with a single copy of this one, giving the same table, or failing in the same
+   * way, as unifying them one after another, without copying the table once per candidate.
+   */
+  public CsvTable unify(List<CsvTable> candidateTables, boolean unifyWithEmpty) {
+    CsvTable unified = new CsvTable(this);
+    for (CsvTable candidateTable : candidateTables)
+      unified.unifyRecords(candidateTable, unifyWithEmpty);
+    return unified;
+  }
+
+  /**
+   * Unify the candidate table with a copy of this one, as {@link #unify(CsvTable, boolean)} does, giving the same table
+   * or failing in the same way, but unifying the candidate's records with this table's on several threads.
+   */
+  public CsvTable unifyInParallel(CsvTable candidateTable, boolean unifyWithEmpty) {
+    CsvTable unified = new CsvTable(this);
+    new CsvParallelUnifier(unified).unify(candidateTable, unifyWithEmpty);
+    return unified;
+  }
+
+  /**
+   * Unify the records of the candidate file with a copy of this one as they are read, giving the same table as unifying
+   * a table loaded from the file would, without holding the candidate's records.
+   * 
+   * @param candidatePrimaryKeyName
+   *          the name of the candidate's primary key column, null for its first column
+   */
+  public CsvTable unify(File candidateFile, String candidatePrimaryKeyName, boolean unifyWithEmpty) {
+    try {
+      CsvParser parser = CsvParsers.open(candidateFile, ingestionOption);
+      try {
+        return unify(parser, candidateFile.getName(), candidatePrimaryKeyName, unifyWithEmpty);
+      } finally {
+        parser.close();
+      }
+    } catch (IOException e) {
+      throw new CsvBugException("Unexpected exception", e);
+    }
+  }
+
+  /**
+   * Unify the records the parser reads, from its header line on, with a copy of this one as they are read, giving the
+   * same table as unifying a table loaded from them would, without holding the candidate's records. Only the
+   * candidate's keys are held, to find duplicates, which fail the unification when they are read rather than before
+   * it starts.
+   * 
+   * @param candidateName
+   *          the name of the file the parser reads, naming the candidate in messages
+   * @param candidatePrimaryKeyName
+   *          the name of the candidate's primary key column, null for its first column
+   */
+  public CsvTable unify(CsvParser candidateParser, String candidateName, String candidatePrimaryKeyName,
+      boolean unifyWithEmpty) {
+    CsvTable unified = new CsvTable(this);
+    try {
+      CsvTable candidateTable = new CsvTable(new File(candidateName), candidateParser, candidatePrimaryKeyName,
+          unificationOption);
+      CsvRecord candidateRecord;
+      while (null != (candidateRecord = candidateTable.loadRecord(candidateParser))) {
+        if (!candidateTable.keys.addKey(candidateRecord.getPrimaryKey()))
+          throw new CsvDuplicateKeyException(candidateRecord.getLineNo(), candidateRecord.getPrimaryKey());
+        unified.unifyRecord(candidateTable, candidateRecord, unifyWithEmpty);
+      }
+    } catch (IOException e) {
+      throw new CsvBugException("Unexpected exception", e);
     }
     return unified;
   }
 
+  /**
+   * Unify the candidate table with this one, changing this table rather than a copy of it. Every candidate record is
+   * checked before anything is changed, so if the unification fails this table is left as it was.
+   * 
+   * @throws CsvRecordUnificationException
+   *           if a field of a candidate record conflicts with one of this table's records
+   * @throws CsvRecordNotFoundException
+   *           if the unification option is THROW and a candidate record's key is not in this table
+   */
+  public void unifyInPlace(CsvTable candidateTable, boolean unifyWithEmpty) {
+    ArrayList<CsvRecord> changing = new ArrayList<CsvRecord>();
+    for (CsvRecord candidateRecord : candidatesToUnify(candidateTable, unifyWithEmpty)) {
+      CsvRecord currentRecord = peek(candidateRecord.getPrimaryKey());
+      if (currentRecord == null) {
+        if (unificationOption == UnificationOptions.DEFAULT)
+          changing.add(candidateRecord);
+        else
+          notFound(candidateTable, candidateRecord);
+      } else if (currentRecord.unifyChanges(candidateRecord, unifyWithEmpty))
+        changing.add(candidateRecord);
+    }
+    for (CsvRecord candidateRecord : changing)
+      unifyRecord(candidateTable, candidateRecord, unifyWithEmpty);
+  }
+
+  /**
+   * Unify the candidate table with this one, changing this table.
+   */
+  void unifyRecords(CsvTable candidateTable, boolean unifyWithEmpty) {
+    for (CsvRecord candidateRecord : candidatesToUnify(candidateTable, unifyWithEmpty))
+      unifyRecord(candidateTable, candidateRecord, unifyWithEmpty);
+  }
+
+  /**
+   * @return the candidate's records, in key order, leaving out those which unifying would not change, when both tables
+   *         are COLUMNAR so that they can be found by comparing a column at a time
+   */
+  private Collection<CsvRecord> candidatesToUnify(CsvTable candidateTable, boolean unifyWithEmpty) {
+    if (!(keyToRecord instanceof CsvColumnStore && candidateTable.keyToRecord instanceof CsvColumnStore))
+      return candidateTable.values();
+    ArrayList<CsvRecord> candidates = new ArrayList<CsvRecord>();
+    for (String key : ((CsvColumnStore) keyToRecord).keysToUnify(candidateTable.keys,
+        (CsvColumnStore) candidateTable.keyToRecord, candidateTable.columnsInOrder, unifyWithEmpty))
+      candidates.add(candidateTable.get(key));
+    return candidates;
+  }
+
+  /**
+   * Unify a record of the candidate table with this one, changing this table.
+   */
+  private void unifyRecord(CsvTable candidateTable, CsvRecord candidateRecord, boolean unifyWithEmpty) {
+    CsvRecord currentRecord = peek(candidateRecord.getPrimaryKey());
+    if (currentRecord == null)
+      notFound(candidateTable, candidateRecord);
+    else if (currentRecord.unifyChanges(candidateRecord, unifyWithEmpty))
+      get(candidateRecord.getPrimaryKey()).unify(candidateRecord, unifyWithEmpty);
+  }
+
+  /**
+   * @return the record of the key, or null, to be read but not changed: one this table still shares with the table
+   *         it was copied from is not cloned, unless the two tables' columns have since parted
+   */
+  CsvRecord peek(String key) {
+    if (!(keys instanceof CsvKeyIndex) || storageOption == StorageOptions.COLUMNAR)
+      return get(key);
+    CsvRecord record = ((CsvKeyIndex) keys).peekRecord(key);
+    if (record == null || record.getTable() == this || record.getTable().getSchema() == schema)
+      return record;
+    return get(key);
+  }
+
+  /**
+   * Called before one of this table's records changes, so that copies still sharing it first take their own.
+   */
+  void recordChanging(CsvRecord record) {
+    if (!(keys instanceof CsvKeyIndex) || !((CsvKeyIndex) keys).sharesRecords())
+      return;
+    CsvField keyField = record.get(primaryKeyColumn.getName());
+    if (keyField != null)
+      ((CsvKeyIndex) keys).recordChanging(keyField.getValue(), record);
+  }
+
+  /**
+   * Have copies of this table still sharing its records take their own, before its columns or keys change.
+   */
+  private void releaseRecords() {
+    if (keys instanceof CsvKeyIndex)
+      ((CsvKeyIndex) keys).releaseRecords();
+  }
+
+  /**
+   * Deal with a candidate record whose key is not in this table, as the unification option says.
+   */
+  void notFound(CsvTable candidateTable, CsvRecord candidateRecord) {
+    String message = "Record not found in " + name
+        + " with key equal " + candidateRecord.getPrimaryKey()
+        + " from line " + candidateRecord.getLineNo() + " in file "
+        + candidateTable.name;
+    switch (unificationOption) {
+    case THROW:
+      throw new CsvRecordNotFoundException(message);
+    case LOG:
+      System.err.println(message);
+      break;
+    case DEFAULT:
+      add(addMissingFields(candidateRecord));
+      break;
+    }
+  }
+
   public void makeFirstAndPrimary(String columnName) {
+    releaseRecords();
+    CsvKeyList newKeys = newKeys();
+    Map<String, CsvRecord> reKeyed = newKeyToRecord(newKeys);
+    for (String oldKey : keys) {
+      CsvRecord r = keyToRecord.get(oldKey);
+      String newKey = r.get(columnName).getValue();
+      if (!newKeys.addKey(newKey))
+        throw new CsvDuplicateKeyException(r.getLineNo(), newKey);
+      reKeyed.put(newKey, r);
+    }
+
     CsvColumn currentPrimaryKeyColumn = getPrimaryKeyColumn();
     currentPrimaryKeyColumn.setPrimaryKey(false);
     CsvColumn column = nameToColumn.get(columnName);
@@ -270,25 +745,31 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
       newColumnsInOrder.add(existingColumn);
     }
     columnsInOrder = newColumnsInOrder;
+    schema = schema.withFirst(columnName);
     primaryKeyColumn = column;
-
-    ArrayList<String> newKeys = new ArrayList<String>();
-    HashMap<String, CsvRecord> reKeyed = new HashMap<String, CsvRecord>();
-    for (String oldKey : keys) {
-      CsvRecord r = keyToRecord.get(oldKey);
-      String newKey = r.get(columnName).getValue();
-      newKeys.add(newKey);
-      reKeyed.put(newKey, r);
-    }
     keys = newKeys;
     keyToRecord = reKeyed;
   }
 
+  /**
+   * @return the name without its extension, or both extensions of a gzipped file such as sheet1.csv.gz
+   */
   public static String removeExtension(String name) {
+    if (name.endsWith(".gz"))
+      name = name.substring(0, name.length() - 3);
     return name.lastIndexOf('.') > -1 ? name
         .substring(0, name.lastIndexOf('.')) : name;
   }
 
+  /**
+   * Give up the memory an OFF_HEAP table holds outside the heap, or an ARENA table holds on it, after which the table
+   * may not be used; does nothing for the other storage options.
+   */
+  public void close() {
+    if (isByteStored())
+      ((CsvByteStore) keys).close();
+  }
+
   public void outputToFile(String outputFileName) throws IOException {
     FileOutputStream out = new FileOutputStream(outputFileName);
     PrintStream p = new PrintStream(out);
@@ -319,6 +800,10 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
     }
     returnStringBuffer.append("\n");
 
+    if (keyToRecord instanceof CsvColumnStore) {
+      ((CsvColumnStore) keyToRecord).appendRows(returnStringBuffer, keys, columnsInOrder);
+      return returnStringBuffer.toString();
+    }
     for (String key : keys) {
       CsvRecord record = keyToRecord.get(key);
       returnStringBuffer.append(record.toString());
@@ -329,7 +814,7 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
 
   @Override
   public void clear() {
-    keys = new ArrayList<String>();
+    keys.removeAllKeys();
     keyToRecord.clear();
   }
 
@@ -367,8 +852,9 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
   public CsvRecord put(String key, CsvRecord record) {
     if (keys.contains(key))
       throw new CsvDuplicateKeyException(record.getLineNo(), key);
-    keys.add(key);
-    return keyToRecord.put(key, addMissingFields(record));
+    CsvRecord defaulted = addMissingFields(record);
+    keys.addKey(key);
+    return keyToRecord.put(key, defaulted);
   }
 
   @Override
@@ -380,8 +866,9 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
 
   @Override
   public CsvRecord remove(Object key) {
-    keys.remove(key);
-    return keyToRecord.remove(key);
+    CsvRecord removed = keyToRecord.remove(key);
+    keys.removeKey(key);
+    return removed;
   }
 
   @Override
@@ -389,13 +876,32 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
     return keyToRecord.size();
   }
 
+  /**
+   * @return a live view of the records, in key order, which cannot be changed through it
+   */
   @Override
   public Collection<CsvRecord> values() {
-    ArrayList<CsvRecord> records = new ArrayList<CsvRecord>();
-    for (String key : keys) {
-      records.add(keyToRecord.get(key));
-    }
-    return records;
+    return new AbstractCollection<CsvRecord>() {
+      @Override
+      public Iterator<CsvRecord> iterator() {
+        return CsvTable.this.iterator();
+      }
+
+      @Override
+      public Spliterator<CsvRecord> spliterator() {
+        return CsvTable.this.spliterator();
+      }
+
+      @Override
+      public int size() {
+        return keys.size();
+      }
+
+      @Override
+      public boolean contains(Object record) {
+        return containsValue(record);
+      }
+    };
   }
 
   @Override
@@ -403,13 +909,41 @@ public class CsvTable implements Map<String, CsvRecord>, Iterable<CsvRecord> {
     return keyToRecord.containsKey(key);
   }
 
+  /**
+   * @return an iterator over the records in key order, which fails if a record is added or removed meanwhile
+   */
   @Override
   public Iterator<CsvRecord> iterator() {
-    ArrayList<CsvRecord> records = new ArrayList<CsvRecord>();
-    for (String key : keys) {
-      records.add(keyToRecord.get(key));
-    }
-    return records.iterator();
+    final Iterator<String> keyIterator = keys.iterator();
+    return new Iterator<CsvRecord>() {
+      @Override
+      public boolean hasNext() {
+        return keyIterator.hasNext();
+      }
+
+      @Override
+      public CsvRecord next() {
+        return keyToRecord.get(keyIterator.next());
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * @return a spliterator over the records in key order, which splits into halves for parallel traversal
+   */
+  @Override
+  public Spliterator<CsvRecord> spliterator() {
+    return keys.spliterator(new Function<String, CsvRecord>() {
+      @Override
+      public CsvRecord apply(String key) {
+        return keyToRecord.get(key);
+      }
+    });
   }
 
   @Override
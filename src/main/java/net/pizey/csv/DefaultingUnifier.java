@@ -12,14 +12,19 @@ public final class DefaultingUnifier {
   public static void main(String[] args) throws Exception {
     if (args.length < 2)
       System.err.println("Expected two or more CSV file name arguments");
-    else {
-      CsvTable current = getCsvTable(args[0]);
-      for (int i = 1; i < args.length; i++) {
-        CsvTable candidate = getCsvTable(args[i]);
-        current = current.unify(candidate, true);
-      }
-      System.out.print(current);
-    }
+    else
+      System.out.print(unify(args));
+  }
+
+  /**
+   * Unify the files with the first, filling in missing fields, as unifying their tables one after another would, but
+   * without copying the growing table for each file and holding only one candidate table at a time.
+   */
+  public static CsvTable unify(String... fileNames) {
+    CsvTable current = getCsvTable(fileNames[0]);
+    for (int i = 1; i < fileNames.length; i++)
+      current.unifyRecords(getCsvTable(fileNames[i]), true);
+    return current;
   }
 
   private static CsvTable getCsvTable(String fileName) {
@@ -0,0 +1,14 @@
+package net.pizey.csv;
+
+/**
+ * How a CsvTable reads its file.
+ * <p>
+ * READER decodes the file with the platform default charset through a Reader; MAPPED memory maps the file and
+ * tokenises its UTF-8 bytes directly; PARALLEL does the same as MAPPED, but splits the file into chunks which are parsed
+ * at the same time; PREFETCH is READER with the file read ahead, a buffer at a time, on a thread of its own.
+ * <p>
+ * A gzipped file cannot be mapped, so is always read as PREFETCH, being decompressed on the reading thread.
+ */
+public enum IngestionOptions {
+  READER, MAPPED, PARALLEL, PREFETCH;
+}
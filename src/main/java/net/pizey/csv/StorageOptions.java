@@ -0,0 +1,15 @@
+package net.pizey.csv;
+
+/**
+ * How a CsvTable holds the values it loads.
+ * <p>
+ * EAGER creates a CsvField for every value as it is read; LAZY keeps the undecoded bytes of each record, other than
+ * its primary key and any fields the row filter looks at, and creates a field the first time it is asked for;
+ * COLUMNAR keeps no records or fields at all, but an array of values per column, and creates records as views of it
+ * when they are asked for; OFF_HEAP does the same with the keys and values held in direct buffers outside the heap,
+ * which the table gives up when it is closed; ARENA does the same with them held as bytes on the heap, so that values
+ * take little more than their bytes.
+ */
+public enum StorageOptions {
+  EAGER, LAZY, COLUMNAR, OFF_HEAP, ARENA;
+}
@@ -15,8 +15,21 @@ public class AllTests extends TestCase {
     ts.addTestSuite(CsvColumnTest.class);
     ts.addTestSuite(CsvRecordTest.class);
     ts.addTestSuite(CsvTableTest.class);
+    ts.addTestSuite(CsvRowTest.class);
+    ts.addTestSuite(CsvColumnDictionaryTest.class);
+    ts.addTestSuite(CsvRawFieldsTest.class);
+    ts.addTestSuite(CsvSchemaTest.class);
+    ts.addTestSuite(CsvKeyIndexTest.class);
+    ts.addTestSuite(CsvColumnStoreTest.class);
+    ts.addTestSuite(CsvByteStoreTest.class);
+    ts.addTestSuite(CsvReaderTest.class);
     ts.addTestSuite(CsvFileParserTest.class);
+    ts.addTestSuite(CsvMappedFileParserTest.class);
+    ts.addTestSuite(CsvPrefetchingInputStreamTest.class);
+    ts.addTestSuite(CsvParallelLoaderTest.class);
     ts.addTestSuite(DefaultingUnifierTest.class);
+    ts.addTestSuite(CsvParallelUnifierTest.class);
+    ts.addTestSuite(CsvExternalUnifierTest.class);
     ts.addTestSuite(ReorderAndUnifyTest.class);
     return ts;
 
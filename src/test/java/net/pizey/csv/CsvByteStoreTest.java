@@ -0,0 +1,236 @@
+package net.pizey.csv;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class CsvByteStoreTest extends TestCase {
+
+  public CsvByteStoreTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  private static CsvTable offHeap(String fileName, UnificationOptions unificationOption) {
+    return new CsvTable(new File(fileName), null, unificationOption, IngestionOptions.READER, null, null,
+        StorageOptions.OFF_HEAP);
+  }
+
+  public void testSameAsEager() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    CsvTable eager = new CsvTable(file, "ID");
+    CsvTable offHeap = new CsvTable(file, "ID", UnificationOptions.THROW, IngestionOptions.MAPPED, null, null,
+        StorageOptions.OFF_HEAP);
+    assertTrue(offHeap.getKeys() instanceof CsvByteStore);
+    assertNull(offHeap.getDictionary("Name"));
+    assertEquals(eager, offHeap);
+    assertEquals(offHeap, eager);
+    assertEquals(eager.hashCode(), offHeap.hashCode());
+    assertEquals(eager.toString(), offHeap.toString());
+    assertEquals(eager.get("164").toJSON(), offHeap.get("164").toJSON());
+    assertEquals(eager.get("164").getLineNo(), offHeap.get("164").getLineNo());
+    assertEquals(eager.getKeys(), offHeap.getKeys());
+    assertEquals(eager, new CsvTable(offHeap));
+    offHeap.close();
+  }
+
+  public void testArenaSameAsEager() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    CsvTable eager = new CsvTable(file, "ID");
+    CsvTable arena = new CsvTable(file, "ID", UnificationOptions.THROW, IngestionOptions.READER, null, null,
+        StorageOptions.ARENA);
+    assertTrue(arena.getKeys() instanceof CsvByteStore);
+    assertNull(arena.getDictionary("Name"));
+    assertEquals(eager, arena);
+    assertEquals(eager.toString(), arena.toString());
+    assertEquals(eager.get("164").toJSON(), arena.get("164").toJSON());
+    CsvTable copy = new CsvTable(arena);
+    assertEquals(StorageOptions.ARENA, copy.getStorageOption());
+    assertEquals(eager, copy);
+    arena.close();
+    assertEquals(eager, copy);
+  }
+
+  public void testValueEquals() {
+    CsvTable sheet2 = new CsvTable(new File("src/test/resources/sheet2.csv"), null, UnificationOptions.LOG,
+        IngestionOptions.READER, null, null, StorageOptions.ARENA);
+    CsvTable copy = new CsvTable(sheet2);
+    CsvTable eager = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvField field = sheet2.get("1").get("field1");
+    assertTrue(field.valueEquals(copy.get("1").get("field1")));
+    assertTrue(field.valueEquals(eager.get("1").get("field1")));
+    assertTrue(eager.get("1").get("field1").valueEquals(field));
+    assertFalse(field.valueEquals(copy.get("2").get("field1")));
+    assertFalse(field.hasEmptyValue());
+    copy.get("1").get("field1").setValue("f1");
+    assertTrue(field.valueEquals(copy.get("1").get("field1")));
+    copy.get("1").get("field1").setValue("");
+    assertTrue(copy.get("1").get("field1").hasEmptyValue());
+    assertFalse(field.valueEquals(copy.get("1").get("field1")));
+    CsvField empty = copy.get("1").get("field1");
+    copy.get("2").get("field1").setValue("");
+    assertTrue(empty.valueEquals(copy.get("2").get("field1")));
+    assertEquals("1,,f2", copy.get("1").toString());
+
+    copy.get("1").unify(sheet2.get("1"), true);
+    assertEquals("1,f1,f2", copy.get("1").toString());
+    copy.get("2").get("field2").setValue("changed");
+    try {
+      copy.get("2").unify(sheet2.get("2"), true);
+      fail("Should have bombed");
+    } catch (CsvRecordUnificationException e) {
+      e = null;
+    }
+  }
+
+  public void testManyKeys() {
+    CsvByteStore store = new CsvByteStore(true);
+    LinkedHashSet<String> model = new LinkedHashSet<String>();
+    for (int i = 0; i < 100000; i++) {
+      assertEquals(model.add("k" + i), store.addKey("k" + i));
+      if (i % 3 == 0)
+        assertEquals(model.remove("k" + (i / 2)), store.removeKey("k" + (i / 2)));
+    }
+    ArrayList<String> expected = new ArrayList<String>(model);
+    assertEquals(expected.size(), store.size());
+    for (int i = 0; i < 100000; i += 7)
+      assertEquals(model.contains("k" + i), store.contains("k" + i));
+    assertEquals(expected, store);
+    assertEquals(expected.get(12345), store.get(12345));
+    assertFalse(store.addKey("k99999"));
+    assertFalse(store.contains(null));
+    assertFalse(store.removeKey(Integer.valueOf(1)));
+    store.removeAllKeys();
+    assertEquals(0, store.size());
+    assertTrue(store.addKey("k1"));
+  }
+
+  public void testValues() {
+    CsvTable sheet = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvByteStore store = (CsvByteStore) sheet.getKeys();
+    CsvColumn notes = new CsvColumn("notes", false);
+    assertTrue(store.addKey("été"));
+    int column = store.columnIndex(notes);
+    assertNull(store.getValue(2, column));
+    store.setValue(2, column, "Café, crème");
+    assertEquals("Café, crème", store.getValue(2, column));
+    store.setValue(2, column, "");
+    assertEquals("", store.getValue(2, column));
+    store.setValue(2, column, null);
+    assertNull(store.getValue(2, column));
+    assertEquals("été", store.get(2));
+    assertNull(sheet.get("été"));
+  }
+
+  public void testWriteThrough() {
+    CsvTable sheet = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvRecord record = sheet.get("1");
+    record.get("field1").setValue("Changed");
+    assertEquals("Changed", sheet.get("1").get("field1").getValue());
+    record.setLineNo(7);
+    assertEquals(7, sheet.get("1").getLineNo());
+    assertEquals("field2", record.remove("field2").getColumn().getName());
+    assertFalse(sheet.get("1").containsKey("field2"));
+    assertNull(record.addField(new CsvField(sheet.getColumn("field2"), "Back")));
+    assertEquals("1,Changed,Back", sheet.get("1").toString());
+  }
+
+  public void testPutAndRemove() {
+    CsvTable sheet2 = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvTable sheet2a = new CsvTable("src/test/resources/sheet2a.csv", UnificationOptions.LOG);
+    sheet2.putAll(sheet2a);
+    assertEquals("Id,field1,field2,\n1,f1,f2,\n2,2f1,2f2,\n3,3f1,3f2,\n4,4f1,4f2,\n", sheet2.toString());
+    CsvRecord removed = sheet2.remove("4");
+    assertEquals("4,4f1,4f2", removed.toString());
+    assertEquals("Id,field1,field2,\n1,f1,f2,\n2,2f1,2f2,\n3,3f1,3f2,\n", sheet2.toString());
+    Map<String, CsvRecord> records = sheet2.getKeyToRecord();
+    CsvRecord previous = records.put("3", sheet2a.get("4"));
+    assertEquals("3,3f1,3f2", previous.toString());
+    assertEquals("4,4f1,4f2", sheet2.get("3").toString());
+    sheet2.clear();
+    assertTrue(sheet2.isEmpty());
+  }
+
+  public void testAddColumn() {
+    CsvTable sheet = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    sheet.addColumn(new CsvColumn("field3", false));
+    assertEquals("Id,field1,field2,field3,\n1,f1,f2,,\n2,2f1,2f2,,\n", sheet.toString());
+    assertEquals("", sheet.get("1").remove("field3").getValue());
+    assertFalse(sheet.get("1").containsKey("field3"));
+    sheet.get("2").get("field3").setValue("2f3");
+    assertEquals("2,2f1,2f2,2f3", sheet.get("2").toString());
+  }
+
+  public void testCopy() {
+    CsvTable sheet = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvTable copy = new CsvTable(sheet);
+    copy.get("1").get("field1").setValue("Copied");
+    sheet.get("2").get("field1").setValue("Original");
+    copy.remove("2");
+    assertEquals("Id,field1,field2,\n1,f1,f2,\n2,Original,2f2,\n", sheet.toString());
+    assertEquals("Id,field1,field2,\n1,Copied,f2,\n", copy.toString());
+    sheet.close();
+    assertEquals("1,Copied,f2", copy.get("1").toString());
+    copy.close();
+  }
+
+  public void testGarbageCollected() {
+    CsvByteStore store = new CsvByteStore(true);
+    store.addKey("1");
+    int column = store.columnIndex(new CsvColumn("notes", false));
+    StringBuffer value = new StringBuffer();
+    for (int i = 0; i < 1000; i++)
+      value.append('x');
+    for (int i = 0; i < 10000; i++)
+      store.setValue(0, column, value.toString() + i);
+    assertEquals(value.toString() + 9999, store.getValue(0, column));
+    assertTrue(store.getAllocatedBytes() < 4 * 1024 * 1024);
+  }
+
+  public void testUnify() {
+    CsvTable expected = new CsvTable("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT)
+        .unify(new CsvTable("src/test/resources/sheet3.csv", UnificationOptions.DEFAULT), true);
+    CsvTable unified = offHeap("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT)
+        .unify(offHeap("src/test/resources/sheet3.csv", UnificationOptions.DEFAULT), true);
+    assertEquals(expected.toString(), unified.toString());
+    assertEquals(StorageOptions.OFF_HEAP, unified.getStorageOption());
+  }
+
+  public void testMakeFirstAndPrimary() {
+    CsvTable eager = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvTable offHeap = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    eager.makeFirstAndPrimary("field1");
+    offHeap.makeFirstAndPrimary("field1");
+    assertEquals(eager.toString(), offHeap.toString());
+    assertEquals("2f1", offHeap.get("2f1").getPrimaryKey());
+  }
+
+  public void testClose() {
+    CsvTable sheet = offHeap("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvRecord record = sheet.get("1");
+    sheet.close();
+    assertEquals(0, sheet.size());
+    try {
+      record.get("field1").getValue();
+      fail("Should have bombed");
+    } catch (IllegalStateException e) {
+      e = null;
+    }
+    try {
+      sheet.add(record);
+      fail("Should have bombed");
+    } catch (IllegalStateException e) {
+      e = null;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package net.pizey.csv;
+
+import junit.framework.TestCase;
+
+public class CsvColumnDictionaryTest extends TestCase {
+
+  public CsvColumnDictionaryTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testIntern() {
+    CsvColumnDictionary dictionary = new CsvColumnDictionary("Village");
+    String first = new String("Southstoke");
+    assertSame(first, dictionary.intern(first));
+    assertSame(first, dictionary.intern(new String("Southstoke")));
+    assertSame(first, dictionary.intern(new String("Southstoke")));
+    assertEquals("Wellow", dictionary.intern("Wellow"));
+    assertEquals(2, dictionary.getDistinctCount());
+    assertEquals(2, dictionary.getSharedCount());
+    assertEquals(2 * CsvColumnDictionary.sizeOf("Southstoke"), dictionary.getSavedBytes());
+    assertEquals("Village: 2 distinct, 2 shared, 128 bytes saved", dictionary.toString());
+  }
+
+  public void testSizeOf() {
+    assertEquals(40, CsvColumnDictionary.sizeOf(""));
+    assertEquals(48, CsvColumnDictionary.sizeOf("CI"));
+    assertEquals(64, CsvColumnDictionary.sizeOf("Southstoke"));
+  }
+
+  public void testSwitchesOff() {
+    CsvColumnDictionary dictionary = new CsvColumnDictionary("ID", 2);
+    dictionary.intern("1");
+    dictionary.intern("2");
+    assertTrue(dictionary.isEnabled());
+    dictionary.intern("3");
+    assertFalse(dictionary.isEnabled());
+    String one = new String("1");
+    assertSame(one, dictionary.intern(one));
+    assertEquals(0, dictionary.getSharedCount());
+    assertEquals("ID (disabled): 3 distinct, 0 shared, 0 bytes saved", dictionary.toString());
+  }
+
+  public void testRelease() {
+    CsvColumnDictionary dictionary = new CsvColumnDictionary("Village");
+    dictionary.intern("Wellow");
+    dictionary.release();
+    String wellow = new String("Wellow");
+    assertSame(wellow, dictionary.intern(wellow));
+    assertTrue(dictionary.isEnabled());
+  }
+}
@@ -0,0 +1,170 @@
+package net.pizey.csv;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.Map.Entry;
+
+import junit.framework.TestCase;
+
+public class CsvColumnStoreTest extends TestCase {
+
+  public CsvColumnStoreTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  private static CsvTable columnar(String fileName, UnificationOptions unificationOption) {
+    return new CsvTable(new File(fileName), null, unificationOption, IngestionOptions.READER, null, null,
+        StorageOptions.COLUMNAR);
+  }
+
+  public void testSameAsEager() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    CsvTable eager = new CsvTable(file, "ID");
+    CsvTable columnar = new CsvTable(file, "ID", UnificationOptions.THROW, IngestionOptions.MAPPED, null, null,
+        StorageOptions.COLUMNAR);
+    assertTrue(columnar.getKeyToRecord() instanceof CsvColumnStore);
+    assertEquals(eager, columnar);
+    assertEquals(columnar, eager);
+    assertEquals(eager.hashCode(), columnar.hashCode());
+    assertEquals(eager.toString(), columnar.toString());
+    assertEquals(eager.get("164").toJSON(), columnar.get("164").toJSON());
+    assertEquals(eager.get("164").getLineNo(), columnar.get("164").getLineNo());
+    assertEquals(eager.keySet(), columnar.keySet());
+    assertEquals(eager, new CsvTable(columnar));
+  }
+
+  public void testWriteThrough() {
+    CsvTable sheet = columnar("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvRecord record = sheet.get("1");
+    record.get("field1").setValue("Changed");
+    assertEquals("Changed", sheet.get("1").get("field1").getValue());
+    record.setLineNo(7);
+    assertEquals(7, sheet.get("1").getLineNo());
+    record.replaceField(record.get("field2"), new CsvField(sheet.getColumn("field2"), "Replaced"));
+    assertEquals("1,Changed,Replaced", sheet.get("1").toString());
+    assertEquals(3, record.size());
+    assertEquals("field2", record.remove("field2").getColumn().getName());
+    assertNull(record.remove("field2"));
+    assertFalse(sheet.get("1").containsKey("field2"));
+    assertNull(sheet.get("1").get("field2"));
+    assertEquals(2, sheet.get("1").size());
+    assertFalse(record.isEmpty());
+    assertNull(record.addField(new CsvField(sheet.getColumn("field2"), "Back")));
+    assertEquals("Back", record.addField(new CsvField(sheet.getColumn("field2"), "Again")).getValue());
+    assertTrue(record.containsValue(new CsvField(sheet.getColumn("field2"), "Again")));
+    assertEquals("[Id, field1, field2]", new TreeSet<String>(record.keySet()).toString());
+    assertEquals(3, record.values().size());
+  }
+
+  public void testPutAndRemove() {
+    CsvTable sheet2 = columnar("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvTable sheet2a = new CsvTable("src/test/resources/sheet2a.csv", UnificationOptions.LOG);
+    sheet2.putAll(sheet2a);
+    assertEquals("Id,field1,field2,\n1,f1,f2,\n2,2f1,2f2,\n3,3f1,3f2,\n4,4f1,4f2,\n", sheet2.toString());
+    sheet2.remove("4");
+    assertEquals("Id,field1,field2,\n1,f1,f2,\n2,2f1,2f2,\n3,3f1,3f2,\n", sheet2.toString());
+    Iterator<Entry<String, CsvRecord>> it = sheet2.getKeyToRecord().entrySet().iterator();
+    it.next();
+    it.remove();
+    assertEquals(2, sheet2.getKeyToRecord().size());
+    sheet2.clear();
+    assertTrue(sheet2.isEmpty());
+  }
+
+  public void testRemoveReleasesRow() {
+    CsvTable sheet = columnar("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvRecord removed = sheet.remove("1");
+    sheet.addColumn(new CsvColumn("field3", false));
+    CsvRecord record = new CsvRecord(sheet);
+    record.addField(new CsvField(sheet.getPrimaryKeyColumn(), "5"));
+    record.addField(new CsvField(sheet.getColumn("field1"), "5f1"));
+    record.setLineNo(5);
+    assertNull(sheet.getKeyToRecord().put("5", record));
+    assertEquals("f1", removed.get("field1").getValue());
+    assertEquals("5f1", sheet.get("5").get("field1").getValue());
+    assertFalse(sheet.get("5").containsKey("field2"));
+    assertFalse(sheet.get("5").containsKey("field3"));
+    assertEquals("", sheet.get("2").get("field3").getValue());
+    assertEquals(5, sheet.get("5").getLineNo());
+
+    record = new CsvRecord(sheet);
+    record.addField(new CsvField(sheet.getPrimaryKeyColumn(), "5"));
+    CsvRecord replaced = sheet.getKeyToRecord().put("5", record);
+    assertEquals("5f1", replaced.get("field1").getValue());
+    assertFalse(sheet.get("5").containsKey("field1"));
+
+    sheet.clear();
+    assertTrue(sheet.isEmpty());
+    sheet.putAll(new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG));
+    assertEquals("Id,field1,field2,field3,\n1,f1,f2,,\n2,2f1,2f2,,\n", sheet.toString());
+  }
+
+  public void testAddColumn() {
+    CsvTable sheet = columnar("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    sheet.addColumn(new CsvColumn("field3", false));
+    assertEquals("Id,field1,field2,field3,\n1,f1,f2,,\n2,2f1,2f2,,\n", sheet.toString());
+    CsvRecord record = sheet.get("1");
+    assertEquals(4, record.size());
+    assertEquals("", record.remove("field3").getValue());
+    assertFalse(sheet.get("1").containsKey("field3"));
+    assertEquals("", sheet.get("2").get("field3").getValue());
+    sheet.get("2").get("field3").setValue("2f3");
+    assertEquals("2,2f1,2f2,2f3", sheet.get("2").toString());
+  }
+
+  public void testUnify() {
+    CsvTable expected = new CsvTable("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT)
+        .unify(new CsvTable("src/test/resources/sheet3.csv", UnificationOptions.DEFAULT), true);
+    CsvTable unified = columnar("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT)
+        .unify(columnar("src/test/resources/sheet3.csv", UnificationOptions.DEFAULT), true);
+    assertEquals(expected.toString(), unified.toString());
+    assertEquals(StorageOptions.COLUMNAR, unified.getStorageOption());
+  }
+
+  public void testUnifySameAsEager() {
+    String[] sheets = { "src/test/resources/eg_sheet1.csv", "src/test/resources/eg_sheet2.csv",
+        "src/test/resources/eg_sheet3.csv" };
+    for (UnificationOptions unificationOption : UnificationOptions.values())
+      for (String current : sheets)
+        for (String candidate : sheets)
+          for (boolean unifyWithEmpty : new boolean[] { true, false }) {
+            String expected = unified(new CsvTable(new File(current), "ID", unificationOption),
+                new CsvTable(new File(candidate), "ID", unificationOption), unifyWithEmpty);
+            String columnar = unified(
+                new CsvTable(new File(current), "ID", unificationOption, IngestionOptions.READER, null, null,
+                    StorageOptions.COLUMNAR),
+                new CsvTable(new File(candidate), "ID", unificationOption, IngestionOptions.READER, null, null,
+                    StorageOptions.COLUMNAR), unifyWithEmpty);
+            assertEquals(current + " " + candidate, expected, columnar);
+          }
+  }
+
+  /**
+   * @return the unified table, or the message of its failure
+   */
+  private static String unified(CsvTable current, CsvTable candidate, boolean unifyWithEmpty) {
+    try {
+      return current.unify(candidate, unifyWithEmpty).toString();
+    } catch (CsvException e) {
+      return e.getMessage();
+    }
+  }
+
+  public void testMakeFirstAndPrimary() {
+    CsvTable eager = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvTable columnar = columnar("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    eager.makeFirstAndPrimary("field1");
+    columnar.makeFirstAndPrimary("field1");
+    assertEquals(eager.toString(), columnar.toString());
+    assertEquals("2f1", columnar.get("2f1").getPrimaryKey());
+  }
+}
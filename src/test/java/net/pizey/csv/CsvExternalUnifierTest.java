@@ -0,0 +1,254 @@
+package net.pizey.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class CsvExternalUnifierTest extends TestCase {
+
+  public CsvExternalUnifierTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  /**
+   * @return the text with its records sorted, as the external unifier writes them in key order rather than the order
+   *         they were added
+   */
+  private static String sorted(String text) {
+    String[] lines = text.split("\n");
+    Arrays.sort(lines, 1, lines.length);
+    StringBuffer sorted = new StringBuffer();
+    for (String line : lines)
+      sorted.append(line).append('\n');
+    return sorted.toString();
+  }
+
+  private static String unify(CsvExternalUnifier unifier, String current, String currentKeyName, String candidate,
+      String candidateKeyName, boolean unifyWithEmpty) throws IOException {
+    StringWriter output = new StringWriter();
+    unifier.unify(new File(current), currentKeyName, new File(candidate), candidateKeyName, unifyWithEmpty, output);
+    return output.toString();
+  }
+
+  private void assertSameAsTable(UnificationOptions option, String current, String currentKeyName,
+      String candidate, String candidateKeyName, boolean unifyWithEmpty) throws IOException {
+    CsvTable unified = new CsvTable(current, currentKeyName, option)
+        .unify(new CsvTable(candidate, candidateKeyName, option), unifyWithEmpty);
+    assertEquals(sorted(unified.toString()), sorted(unify(new CsvExternalUnifier(option), current, currentKeyName,
+        candidate, candidateKeyName, unifyWithEmpty)));
+  }
+
+  public void testSameAsTable() throws Exception {
+    assertSameAsTable(UnificationOptions.DEFAULT, "src/test/resources/sheet1.csv", null,
+        "src/test/resources/sheet3.csv", null, true);
+    assertSameAsTable(UnificationOptions.DEFAULT, "src/test/resources/sheet1.csv", null,
+        "src/test/resources/sheet3.csv", null, false);
+    assertSameAsTable(UnificationOptions.LOG, "src/test/resources/sheet2.csv", null,
+        "src/test/resources/sheet2a.csv", null, true);
+    assertSameAsTable(UnificationOptions.DEFAULT, "src/test/resources/eg_sheet1.csv", "ID",
+        "src/test/resources/eg_sheet2.csv", "ID", true);
+    assertSameAsTable(UnificationOptions.DEFAULT, "src/test/resources/eg_sheet2.csv", "ID",
+        "src/test/resources/eg_sheet3.csv", "ID", true);
+  }
+
+  public void testDefaultedBeforeColumnsAdded() throws Exception {
+    // Key 0 is defaulted before key 1 is unified, adding field2
+    File current = write("Id,field1,\n1,,\n", "current");
+    File candidate = write("Id,field1,field2,\n0,a,b,\n1,c,d,\n", "candidate");
+    try {
+      CsvTable unified = new CsvTable(current.getPath(), UnificationOptions.DEFAULT)
+          .unify(new CsvTable(candidate.getPath(), UnificationOptions.DEFAULT), true);
+      assertEquals("Id,field1,field2,\n1,c,d,\n0,a,,\n", unified.toString());
+      assertEquals("Id,field1,field2,\n0,a,,\n1,c,d,\n", unify(new CsvExternalUnifier(UnificationOptions.DEFAULT),
+          current.getPath(), null, candidate.getPath(), null, true));
+    } finally {
+      current.delete();
+      candidate.delete();
+    }
+  }
+
+  public void testErrors() throws Exception {
+    CsvExternalUnifier throwing = new CsvExternalUnifier(UnificationOptions.THROW);
+    try {
+      unify(throwing, "src/test/resources/sheet2.csv", null, "src/test/resources/sheet2a.csv", null, true);
+      fail("Should have bombed");
+    } catch (CsvRecordNotFoundException e) {
+      assertEquals("Record not found in sheet2 with key equal 3 from line 2 in file sheet2a", e.getMessage());
+    }
+    try {
+      unify(throwing, "src/test/resources/sheet2.csv", null, "src/test/resources/mutatedCopyOfSheet2.csv", null,
+          true);
+      fail("Should have bombed");
+    } catch (CsvRecordUnificationException e) {
+      e = null;
+    }
+    File duplicated = write("Id,field1,\n1,a,\n2,b,\n1,c,\n", "duplicated");
+    try {
+      unify(throwing, duplicated.getPath(), null, "src/test/resources/sheet1.csv", null, true);
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      assertEquals("Line 4: Key 1 already exists", e.getMessage());
+    } finally {
+      duplicated.delete();
+    }
+    try {
+      unify(throwing, "src/test/resources/sheet2.csv", "Missing", "src/test/resources/sheet1.csv", null, true);
+      fail("Should have bombed");
+    } catch (CsvColumnNotFoundException e) {
+      e = null;
+    }
+    try {
+      new CsvExternalUnifier(UnificationOptions.THROW, 1024, null);
+      fail("Should have bombed");
+    } catch (IllegalArgumentException e) {
+      e = null;
+    }
+  }
+
+  public void testManyRuns() throws Exception {
+    File directory = new File("target", "runs");
+    directory.mkdirs();
+    Random random = new Random(17);
+    int[] keys = new int[20000];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = i;
+    for (int i = keys.length - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int key = keys[i];
+      keys[i] = keys[j];
+      keys[j] = key;
+    }
+    File current = new File(directory, "current.csv");
+    File candidate = new File(directory, "candidate.csv");
+    PrintStream currentOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(current)));
+    PrintStream candidateOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(candidate)));
+    currentOut.print("Id,name,notes,\n");
+    candidateOut.print("Id,name,village,\n");
+    for (int i = 0; i < keys.length; i++) {
+      currentOut.print(keys[i] + ",name" + keys[i] + "," + (i % 3 == 0 ? "" : "\"note, " + i + "\"") + ",\n");
+      if (i % 2 == 0)
+        candidateOut.print(keys[i] + ",name" + keys[i] + ",village" + i % 7 + ",\n");
+    }
+    candidateOut.print("extra,name,village,\n");
+    currentOut.close();
+    candidateOut.close();
+    try {
+      CsvTable unified = new CsvTable(current.getPath(), UnificationOptions.DEFAULT)
+          .unify(new CsvTable(candidate.getPath(), UnificationOptions.DEFAULT), true);
+      String expected = sorted(unified.toString());
+      CsvExternalUnifier unifier = new CsvExternalUnifier(UnificationOptions.DEFAULT,
+          CsvExternalUnifier.MINIMUM_MEMORY_BUDGET, directory);
+      assertEquals(expected, sorted(unify(unifier, current.getPath(), null, candidate.getPath(), null, true)));
+      assertEquals(expected, sorted(unify(new CsvExternalUnifier(UnificationOptions.DEFAULT), current.getPath(), null,
+          candidate.getPath(), null, true)));
+    } finally {
+      current.delete();
+      candidate.delete();
+    }
+    assertEquals(0, directory.list().length);
+  }
+
+  /** Keys which are whole numbers first, in numeric order, then the others in String order. */
+  private static final Comparator<String> NUMBERS_FIRST = new Comparator<String>() {
+    @Override
+    public int compare(String one, String other) {
+      boolean oneIsNumber = one.matches("[0-9]+");
+      boolean otherIsNumber = other.matches("[0-9]+");
+      if (oneIsNumber && otherIsNumber)
+        return Long.compare(Long.parseLong(one), Long.parseLong(other));
+      return oneIsNumber ? -1 : otherIsNumber ? 1 : one.compareTo(other);
+    }
+  };
+
+  public void testSorted() throws Exception {
+    StringBuffer currentText = new StringBuffer("Id,name,notes,\n");
+    StringBuffer candidateText = new StringBuffer("Id,name,village,\n");
+    for (int i = 0; i < 5000; i++) {
+      currentText.append(i).append(",name").append(i).append(',').append(i % 3 == 0 ? "" : "note" + i).append(",\n");
+      if (i % 2 == 0)
+        candidateText.append(i).append(",name").append(i).append(",village").append(i % 7).append(",\n");
+    }
+    currentText.append("a,name,,\nb,name,b,\n");
+    candidateText.append("5001,name,village,\nb,name,village,\nc,name,village,\n");
+    File current = write(currentText.toString(), "current");
+    File candidate = write(candidateText.toString(), "candidate");
+    File unsorted = write("Id,name,village,\n2,name2,v,\n10,name10,v,\n9,name9,v,\n", "unsorted");
+    try {
+      CsvExternalUnifier unifier = new CsvExternalUnifier(UnificationOptions.DEFAULT,
+          CsvExternalUnifier.MINIMUM_MEMORY_BUDGET, null, NUMBERS_FIRST);
+      StringWriter sorted = new StringWriter();
+      unifier.unifySorted(current, null, candidate, null, true, sorted);
+      CsvTable unified = new CsvTable(current.getPath(), UnificationOptions.DEFAULT)
+          .unify(new CsvTable(candidate.getPath(), UnificationOptions.DEFAULT), true);
+      assertEquals(sorted(unified.toString()), sorted(sorted.toString()));
+      assertTrue(sorted.toString().startsWith("Id,name,notes,village,\n0,name0,,village0,\n1,name1,note1,,\n"));
+      assertTrue(sorted.toString().endsWith("\n5001,name,,village,\na,name,,,\nb,name,b,village,\nc,name,,village,\n"));
+      assertEquals(sorted.toString(), unify(unifier, current.getPath(), null, candidate.getPath(), null, true));
+      assertEquals(sorted(unify(unifier, current.getPath(), null, unsorted.getPath(), null, true)),
+          sorted(new CsvTable(current.getPath(), UnificationOptions.DEFAULT).unify(
+              new CsvTable(unsorted.getPath(), UnificationOptions.DEFAULT), true).toString()));
+      try {
+        unifier.unifySorted(current, null, unsorted, null, true, new StringWriter());
+        fail("Should have bombed");
+      } catch (CsvKeyOrderException e) {
+        assertEquals("Line 4: Key 9 is out of order, after 10", e.getMessage());
+      }
+    } finally {
+      current.delete();
+      candidate.delete();
+      unsorted.delete();
+    }
+  }
+
+  public void testStringOrder() throws Exception {
+    File current = write("Id,name,\n1,one,\n10,ten,\n2,two,\n", "current");
+    File candidate = write("Id,village,\n10,v10,\n3,v3,\n", "candidate");
+    File padded = write("Id,village,\n001,v1,\n002,v2,\n010,v10,\n", "padded");
+    File numeric = write("Id,village,\n2,v2,\n10,v10,\n", "numeric");
+    try {
+      CsvExternalUnifier unifier = new CsvExternalUnifier(UnificationOptions.DEFAULT);
+      StringWriter output = new StringWriter();
+      unifier.unifySorted(current, null, candidate, null, true, output);
+      assertEquals("Id,name,village,\n1,one,,\n10,ten,v10,\n2,two,,\n3,,v3,\n", output.toString());
+      assertEquals(output.toString(), unify(unifier, current.getPath(), null, candidate.getPath(), null, true));
+      output = new StringWriter();
+      unifier.unifySorted(padded, null, candidate, null, true, output);
+      assertEquals("Id,village,\n001,v1,\n002,v2,\n010,v10,\n10,v10,\n3,v3,\n", output.toString());
+      try {
+        unifier.unifySorted(current, null, numeric, null, true, new StringWriter());
+        fail("Should have bombed");
+      } catch (CsvKeyOrderException e) {
+        assertEquals("Line 3: Key 10 is out of order, after 2", e.getMessage());
+      }
+    } finally {
+      current.delete();
+      candidate.delete();
+      padded.delete();
+      numeric.delete();
+    }
+  }
+
+  private static File write(String text, String name) throws IOException {
+    File file = File.createTempFile(name, ".csv");
+    PrintStream out = new PrintStream(new FileOutputStream(file));
+    out.print(text);
+    out.close();
+    return file;
+  }
+}
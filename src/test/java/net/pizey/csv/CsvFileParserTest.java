@@ -3,6 +3,7 @@ package net.pizey.csv;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.StringReader;
 import java.util.NoSuchElementException;
 
 import junit.framework.TestCase;
@@ -87,25 +88,138 @@ public class CsvFileParserTest extends TestCase {
   /**
    * Test method for {@link net.pizey.csv.CsvFileParser#hasNextRecord()}.
    */
-  public void testNextRecord() {
+  public void testNextRecord() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader("a,b\r\n\r\nc,\"d\ne\",f\nignored"));
+    assertTrue(toks.hasNextRecord());
+    assertEquals("a", toks.nextField());
+    assertTrue(toks.hasNextRecord());
+    assertFalse(toks.recordHasMoreFields());
+    assertTrue(toks.hasNextRecord());
+    assertEquals("c", toks.nextField());
+    // unread fields are skipped
+    assertTrue(toks.hasNextRecord());
+    assertEquals("ignored", toks.nextField());
+    assertFalse(toks.hasNextRecord());
+    assertFalse(toks.hasNextRecord());
   }
 
   /**
    * Test method for {@link net.pizey.csv.CsvFileParser#getLineNo()}.
    */
-  public void testGetLineNo() {
+  public void testGetLineNo() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader("1,\"a\r\nb\rc\"\n2,x\n"));
+    assertEquals(0, toks.getLineNo());
+    assertTrue(toks.hasNextRecord());
+    assertEquals(1, toks.getLineNo());
+    assertEquals("1", toks.nextField());
+    assertEquals("a\nb\nc", toks.nextField());
+    assertEquals(3, toks.getLineNo());
+    assertTrue(toks.hasNextRecord());
+    assertEquals(4, toks.getLineNo());
   }
 
   /**
    * Test method for {@link net.pizey.csv.CsvFileParser#recordHasMoreFields()}.
    */
-  public void testRecordHasMoreFields() {
+  public void testRecordHasMoreFields() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader("a,\"b\",\n\"c\""));
+    assertFalse(toks.recordHasMoreFields());
+    assertTrue(toks.hasNextRecord());
+    assertEquals("a", toks.nextField());
+    assertEquals("b", toks.nextField());
+    assertTrue(toks.recordHasMoreFields());
+    assertEquals("", toks.nextField());
+    assertFalse(toks.recordHasMoreFields());
+    assertTrue(toks.hasNextRecord());
+    assertEquals("c", toks.nextField());
+    assertFalse(toks.recordHasMoreFields());
   }
 
   /**
    * Test method for {@link net.pizey.csv.CsvFileParser#nextField()}.
    */
-  public void testNextField() {
+  public void testNextField() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader("\"a\"b\",\"c,d\",e\"f,"));
+    assertTrue(toks.hasNextRecord());
+    assertEquals("a\"b", toks.nextField());
+    assertEquals("c,d", toks.nextField());
+    assertEquals("e\"f", toks.nextField());
+    assertEquals("", toks.nextField());
+    try {
+      toks.nextField();
+      fail("Should have bombed");
+    } catch (NoSuchElementException e) {
+      e = null;
+    }
+  }
+
+  /**
+   * Test method for {@link net.pizey.csv.CsvFileParser#skipField()}.
+   */
+  public void testSkipField() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader("a,\"b\nc\",d\ne"), 2);
+    assertTrue(toks.hasNextRecord());
+    toks.skipField();
+    toks.skipField();
+    assertEquals(2, toks.getLineNo());
+    assertEquals("d", toks.nextField());
+    try {
+      toks.skipField();
+      fail("Should have bombed");
+    } catch (NoSuchElementException e) {
+      e = null;
+    }
+    assertTrue(toks.hasNextRecord());
+    assertEquals("e", toks.nextField());
+  }
+
+  public void testNextRawField() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader("a,\"b\r\nc\",Zoë,\ne"), 2);
+    CsvRawFields fields = new CsvRawFields();
+    assertTrue(toks.hasNextRecord());
+    toks.nextRawField(fields);
+    toks.skipField();
+    assertEquals(2, toks.getLineNo());
+    toks.nextRawField(fields);
+    toks.nextRawField(fields);
+    assertFalse(toks.recordHasMoreFields());
+    try {
+      toks.nextRawField(fields);
+      fail("Should have bombed");
+    } catch (NoSuchElementException e) {
+      e = null;
+    }
+    assertEquals("a,Zoë,", fields.toString());
+    assertEquals(3, fields.size());
+    assertTrue(toks.hasNextRecord());
+    assertEquals("e", toks.nextField());
+  }
+
+  public void testFieldsLongerThanBuffer() throws Exception {
+    CsvFileParser toks = new CsvFileParser(new StringReader(
+        "abcdefghij,\"klm\r\nnop,qrs\"\r\nuvw,xyz"), 4);
+    assertTrue(toks.hasNextRecord());
+    assertEquals("abcdefghij", toks.nextField());
+    assertEquals("klm\nnop,qrs", toks.nextField());
+    assertTrue(toks.hasNextRecord());
+    assertEquals("uvw", toks.nextField());
+    assertEquals("xyz", toks.nextField());
+    assertFalse(toks.hasNextRecord());
+  }
+
+  public void testManyLinesInOneField() throws Exception {
+    int lines = 100000;
+    StringBuffer in = new StringBuffer("1,\"");
+    for (int i = 0; i < lines; i++)
+      in.append("line\n");
+    in.append("\",2\n");
+    CsvFileParser toks = new CsvFileParser(new StringReader(in.toString()));
+    assertTrue(toks.hasNextRecord());
+    assertEquals("1", toks.nextField());
+    assertEquals(lines * 5, toks.nextField().length());
+    assertEquals("2", toks.nextField());
+    assertEquals(lines + 1, toks.getLineNo());
+    assertFalse(toks.hasNextRecord());
   }
 
 }
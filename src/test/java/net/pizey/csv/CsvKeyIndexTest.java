@@ -0,0 +1,234 @@
+package net.pizey.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import junit.framework.TestCase;
+
+public class CsvKeyIndexTest extends TestCase {
+
+  public CsvKeyIndexTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testAddKey() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    assertTrue(index.addKey("2"));
+    assertTrue(index.addKey("1"));
+    assertFalse(index.addKey("2"));
+    assertEquals(2, index.size());
+    assertEquals("[2, 1]", index.toString());
+    assertTrue(index.contains("1"));
+    assertFalse(index.contains("3"));
+    assertFalse(index.contains(null));
+    assertEquals("1", index.get(1));
+    try {
+      index.addKey(null);
+      fail("Should have bombed");
+    } catch (NullPointerException e) {
+      e = null;
+    }
+    try {
+      index.add("3");
+      fail("Should have bombed");
+    } catch (UnsupportedOperationException e) {
+      e = null;
+    }
+  }
+
+  public void testRemoveKey() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    for (int i = 0; i < 10; i++)
+      index.addKey(String.valueOf(i));
+    assertTrue(index.removeKey("3"));
+    assertFalse(index.removeKey("3"));
+    assertFalse(index.removeKey(null));
+    assertTrue(index.removeKey("9"));
+    assertEquals(8, index.size());
+    assertEquals("[0, 1, 2, 4, 5, 6, 7, 8]", index.toString());
+    assertEquals("4", index.get(3));
+    assertFalse(index.contains("3"));
+    assertTrue(index.addKey("3"));
+    assertEquals("[0, 1, 2, 4, 5, 6, 7, 8, 3]", index.toString());
+    assertEquals("3", index.get(8));
+  }
+
+  public void testManyKeys() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    LinkedHashSet<String> model = new LinkedHashSet<String>();
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(model.add("k" + i), index.addKey("k" + i));
+      if (i % 3 == 0)
+        assertEquals(model.remove("k" + (i / 2)), index.removeKey("k" + (i / 2)));
+    }
+    ArrayList<String> expected = new ArrayList<String>(model);
+    assertEquals(expected.size(), index.size());
+    for (int i = 0; i < 10000; i++)
+      assertEquals(model.contains("k" + i), index.contains("k" + i));
+    assertEquals(expected, index);
+    assertEquals(expected.get(1234), index.get(1234));
+    assertEquals(expected.hashCode(), index.hashCode());
+  }
+
+  public void testCopy() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    for (int i = 0; i < 3000; i++)
+      index.addKey(String.valueOf(i));
+    CsvKeyIndex copy = new CsvKeyIndex(index, null);
+    assertEquals(index, copy);
+    assertTrue(copy.removeKey("5"));
+    assertTrue(copy.addKey("new"));
+    assertTrue(index.addKey("other"));
+    assertTrue(index.contains("5"));
+    assertFalse(index.contains("new"));
+    assertFalse(copy.contains("other"));
+    assertEquals(3001, index.size());
+    assertEquals(3000, copy.size());
+    assertEquals("new", copy.get(2999));
+    assertEquals("other", index.get(3000));
+  }
+
+  public void testToNumber() {
+    assertEquals(0, CsvKeyIndex.toNumber("0"));
+    assertEquals(164, CsvKeyIndex.toNumber("164"));
+    assertEquals(-7, CsvKeyIndex.toNumber("-7"));
+    assertEquals(Long.MAX_VALUE, CsvKeyIndex.toNumber("9223372036854775807"));
+    assertEquals(-Long.MAX_VALUE, CsvKeyIndex.toNumber("-9223372036854775807"));
+    String[] notNumbers = {"", "-", "-0", "007", "+1", "1.0", " 1", "1a", "9223372036854775808",
+        "-9223372036854775808", "12345678901234567890"};
+    for (String key : notNumbers)
+      assertEquals(key, Long.MIN_VALUE, CsvKeyIndex.toNumber(key));
+  }
+
+  public void testNumbersThenStrings() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    LinkedHashSet<String> model = new LinkedHashSet<String>();
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(model.add(String.valueOf(i * 7 - 100)), index.addKey(String.valueOf(i * 7 - 100)));
+      if (i % 3 == 0)
+        assertEquals(model.remove(String.valueOf(i * 7 / 2)), index.removeKey(String.valueOf(i * 7 / 2)));
+    }
+    assertFalse(index.contains("007"));
+    assertFalse(index.contains(Integer.valueOf(7)));
+    assertEquals(new ArrayList<String>(model), index);
+    CsvKeyIndex copy = new CsvKeyIndex(index, null);
+
+    assertTrue(index.addKey("007"));
+    assertTrue(index.contains("007"));
+    assertFalse(index.contains("7"));
+    assertFalse(index.addKey(String.valueOf(-100)));
+    assertTrue(index.addKey("-0"));
+    model.add("007");
+    model.add("-0");
+    assertEquals(new ArrayList<String>(model), index);
+    assertEquals(model.size() - 2, copy.size());
+    assertFalse(copy.contains("007"));
+    assertTrue(copy.addKey("9"));
+    assertFalse(index.contains("9"));
+
+    index.removeAllKeys();
+    assertTrue(index.addKey("1"));
+    assertTrue(index.addKey("01"));
+    assertEquals("[1, 01]", index.toString());
+  }
+
+  public void testRecords() {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv");
+    CsvKeyIndex index = new CsvKeyIndex();
+    CsvRecord one = sheet.get("1");
+    assertNull(index.putRecord("1", one));
+    assertSame(one, index.getRecord("1"));
+    assertNull(index.getRecord("2"));
+    CsvTable other = new CsvTable(sheet);
+    CsvKeyIndex copy = new CsvKeyIndex(index, other);
+    CsvRecord cloned = copy.getRecord("1");
+    assertNotSame(one, cloned);
+    assertSame(other, cloned.getTable());
+    assertEquals(one.toString(), cloned.toString());
+    assertSame(cloned, copy.asMap(other).get("1"));
+    CsvRecord two = sheet.get("2");
+    assertSame(cloned, copy.putRecord("1", two));
+    assertSame(one, index.getRecord("1"));
+    assertSame(two, copy.asMap(other).get("1"));
+
+    Map<String, CsvRecord> records = index.asMap(sheet);
+    assertSame(one, records.get("1"));
+    assertSame(one, records.remove("1"));
+    assertEquals(0, index.size());
+  }
+
+  public void testClear() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    index.addKey("1");
+    index.removeAllKeys();
+    assertEquals(0, index.size());
+    assertFalse(index.contains("1"));
+    assertTrue(index.addKey("1"));
+  }
+
+  public void testIterator() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    index.addKey("1");
+    index.addKey("2");
+    Iterator<String> it = index.iterator();
+    assertEquals("1", it.next());
+    try {
+      it.remove();
+      fail("Should have bombed");
+    } catch (UnsupportedOperationException e) {
+      e = null;
+    }
+    index.removeKey("2");
+    try {
+      it.next();
+      fail("Should have bombed");
+    } catch (ConcurrentModificationException e) {
+      e = null;
+    }
+  }
+
+  public void testSpliterator() {
+    CsvKeyIndex index = new CsvKeyIndex();
+    for (int i = 0; i < 1000; i++)
+      index.addKey(String.valueOf(i));
+    Spliterator<String> all = index.spliterator();
+    assertTrue(all.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+    Spliterator<String> prefix = all.trySplit();
+    assertEquals(500, prefix.estimateSize());
+    assertEquals(500, all.estimateSize());
+    assertEquals(Arrays.asList(index.toArray()), StreamSupport.stream(index.spliterator(), true)
+        .collect(Collectors.toList()));
+
+    index.removeKey("0");
+    Spliterator<String> gapped = index.spliterator();
+    assertFalse(gapped.hasCharacteristics(Spliterator.SIZED));
+    assertEquals(999, StreamSupport.stream(index.spliterator(), true).count());
+    index.removeKey("1");
+    try {
+      gapped.tryAdvance(new Consumer<String>() {
+        @Override
+        public void accept(String key) {
+        }
+      });
+      fail("Should have bombed");
+    } catch (ConcurrentModificationException e) {
+      e = null;
+    }
+  }
+}
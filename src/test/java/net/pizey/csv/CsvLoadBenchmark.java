@@ -0,0 +1,78 @@
+package net.pizey.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Times loading tables of increasing size, to show that the time per record stays flat.
+ * <p>
+ * Not run as a test. Run with the row counts as arguments, by default 10000 100000 1000000 10000000, with a heap
+ * big enough for the largest, for example:
+ *
+ * <pre>
+ * java -Xmx16g -cp target/classes:target/test-classes net.pizey.csv.CsvLoadBenchmark 10000 100000 1000000
+ * </pre>
+ *
+ * For each count the keys alone are first added to and removed from a {@link CsvKeyIndex}, then a generated file is
+ * loaded into a table.
+ */
+public class CsvLoadBenchmark {
+
+  private static final int[] DEFAULT_ROW_COUNTS = { 10000, 100000, 1000000, 10000000 };
+
+  public static void main(String[] args) throws Exception {
+    int[] rowCounts = DEFAULT_ROW_COUNTS;
+    if (args.length > 0) {
+      rowCounts = new int[args.length];
+      for (int i = 0; i < args.length; i++)
+        rowCounts[i] = Integer.parseInt(args[i]);
+    }
+    // Warm up
+    timeIndex(rowCounts[0]);
+    timeLoad(rowCounts[0]);
+    System.out.println("rows\tindex ms\tindex ns/key\tload ms\tload ns/row");
+    for (int rows : rowCounts) {
+      long indexNanos = timeIndex(rows);
+      long loadNanos = timeLoad(rows);
+      System.out.println(rows + "\t" + indexNanos / 1000000 + "\t" + indexNanos / rows + "\t"
+          + loadNanos / 1000000 + "\t" + loadNanos / rows);
+    }
+  }
+
+  private static long timeIndex(int rows) {
+    long start = System.nanoTime();
+    CsvKeyIndex index = new CsvKeyIndex();
+    for (int i = 1; i <= rows; i++)
+      index.addKey(String.valueOf(i));
+    for (int i = 1; i <= rows; i += 2)
+      index.removeKey(String.valueOf(i));
+    return System.nanoTime() - start;
+  }
+
+  private static File writeFile(int rows) throws Exception {
+    File file = new File("target", "benchmark" + rows + ".csv");
+    PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+    out.print("Id,name,notes,village,\r\n");
+    for (int i = 1; i <= rows; i++)
+      out.print(i + ",name" + i + ",\"plain, " + i + "\"," + (i % 2 == 0 ? "Southstoke" : "Combe Down") + ",\r\n");
+    out.close();
+    return file;
+  }
+
+  private static long timeLoad(int rows) throws Exception {
+    File file = writeFile(rows);
+    try {
+      System.gc();
+      long start = System.nanoTime();
+      CsvTable table = new CsvTable(file, null, UnificationOptions.THROW);
+      long elapsed = System.nanoTime() - start;
+      if (table.size() != rows)
+        throw new CsvBugException("Loaded " + table.size() + " of " + rows + " rows");
+      return elapsed;
+    } finally {
+      file.delete();
+    }
+  }
+}
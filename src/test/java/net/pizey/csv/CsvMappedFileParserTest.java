@@ -0,0 +1,141 @@
+package net.pizey.csv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.RandomAccessFile;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+public class CsvMappedFileParserTest extends TestCase {
+
+  public CsvMappedFileParserTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  private static String tokens(CsvParser parser) throws Exception {
+    StringBuffer out = new StringBuffer();
+    try {
+      while (parser.hasNextRecord()) {
+        out.append(parser.getLineNo()).append(':');
+        while (parser.recordHasMoreFields())
+          out.append('[').append(parser.nextField()).append(']');
+        out.append('\n');
+      }
+    } catch (IllegalArgumentException e) {
+      out.append("IllegalArgumentException");
+    }
+    return out.toString();
+  }
+
+  /**
+   * The same as tokens, reading each field through nextRawField.
+   */
+  private static String rawTokens(CsvParser parser) throws Exception {
+    StringBuffer out = new StringBuffer();
+    CsvRawFields fields = new CsvRawFields();
+    try {
+      while (parser.hasNextRecord()) {
+        out.append(parser.getLineNo()).append(':');
+        fields.clear();
+        while (parser.recordHasMoreFields()) {
+          out.append('[');
+          parser.nextRawField(fields);
+          out.append(fields.get(fields.size() - 1)).append(']');
+        }
+        out.append('\n');
+      }
+    } catch (IllegalArgumentException e) {
+      out.append("IllegalArgumentException");
+    }
+    return out.toString();
+  }
+
+  private static File write(String fileName, String content) throws Exception {
+    File file = new File("target", fileName);
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content.getBytes("UTF-8"));
+    out.close();
+    return file;
+  }
+
+  public void testSameTokensAsCsvFileParser() throws Exception {
+    File[] files = new File("src/test/resources").listFiles();
+    for (File file : files) {
+      BufferedReader reader = new BufferedReader(new FileReader(file));
+      String expected = tokens(new CsvFileParser(reader));
+      reader.close();
+
+      CsvMappedFileParser mapped = new CsvMappedFileParser(file);
+      assertEquals(file.getName(), expected, tokens(mapped));
+      mapped.close();
+
+      mapped = new CsvMappedFileParser(new RandomAccessFile(file, "r"), 3);
+      assertEquals(file.getName(), expected, tokens(mapped));
+      mapped.close();
+
+      reader = new BufferedReader(new FileReader(file));
+      assertEquals(file.getName(), expected, rawTokens(new CsvFileParser(reader, 3)));
+      reader.close();
+
+      mapped = new CsvMappedFileParser(new RandomAccessFile(file, "r"), 3);
+      assertEquals(file.getName(), expected, rawTokens(mapped));
+      mapped.close();
+    }
+  }
+
+  public void testUtf8() throws Exception {
+    File file = write("utf8.csv", "Id,name,\r\n1,Zoë,\r\n2,\"naïve\r\n€\",\r\n3,plain");
+    CsvMappedFileParser mapped = new CsvMappedFileParser(new RandomAccessFile(file, "r"), 4);
+    assertEquals("1:[Id][name][]\n2:[1][Zoë][]\n3:[2][naïve\n€][]\n5:[3][plain]\n",
+        tokens(mapped));
+    mapped.close();
+    mapped = new CsvMappedFileParser(new RandomAccessFile(file, "r"), 4);
+    assertEquals("1:[Id][name][]\n2:[1][Zoë][]\n3:[2][naïve\n€][]\n5:[3][plain]\n",
+        rawTokens(mapped));
+    mapped.close();
+  }
+
+  public void testEmptyFile() throws Exception {
+    CsvMappedFileParser mapped = new CsvMappedFileParser(write("empty.csv", ""));
+    assertFalse(mapped.hasNextRecord());
+    assertFalse(mapped.recordHasMoreFields());
+    try {
+      mapped.nextField();
+      fail("Should have bombed");
+    } catch (NoSuchElementException e) {
+      e = null;
+    }
+    mapped.close();
+  }
+
+  public void testCsvTable() throws Exception {
+    String fileName = "src/test/resources/eg_sheet1.csv";
+    CsvTable read = new CsvTable(new File(fileName), "ID", UnificationOptions.DEFAULT);
+    CsvTable mapped = new CsvTable(new File(fileName), "ID", UnificationOptions.DEFAULT,
+        IngestionOptions.MAPPED);
+    assertEquals(IngestionOptions.MAPPED, mapped.getIngestionOption());
+    assertEquals(read, mapped);
+    assertEquals(read.toString(), mapped.toString());
+  }
+
+  public void testCsvTableParseException() {
+    try {
+      new CsvTable(new File("src/test/resources/unclosedQuote.csv"), null, UnificationOptions.LOG,
+          IngestionOptions.MAPPED);
+      fail("Should have bombed");
+    } catch (CsvParseException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+}
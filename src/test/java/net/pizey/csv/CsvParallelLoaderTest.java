@@ -0,0 +1,136 @@
+package net.pizey.csv;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import junit.framework.TestCase;
+
+public class CsvParallelLoaderTest extends TestCase {
+
+  public CsvParallelLoaderTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  /**
+   * Write a file big enough to be split into several chunks, in which every third record has a quoted field spanning
+   * lines, so that some chunk boundaries fall within quotes.
+   */
+  static File writeLargeFile(String fileName, int records, String duplicateKey) throws Exception {
+    File file = new File("target", fileName);
+    PrintStream out = new PrintStream(new FileOutputStream(file));
+    out.print("Id,name,notes,village,\r\n");
+    for (int i = 1; i <= records; i++) {
+      out.print(i + ",name" + i + ",");
+      if (i % 3 == 0)
+        out.print("\"notes for " + i + ",\r\nspanning\nthree lines\",");
+      else
+        out.print("\"plain, " + i + "\",");
+      out.print(i % 2 == 0 ? "Southstoke" : "Combe Down");
+      out.print(",\r\n");
+    }
+    if (duplicateKey != null)
+      out.print(duplicateKey + ",again,,,\r\n");
+    out.close();
+    return file;
+  }
+
+  public void testSameAsSequentialLoad() throws Exception {
+    File file = writeLargeFile("parallel.csv", 15000, null);
+    assertTrue(file.length() > 4 * CsvParallelLoader.MINIMUM_CHUNK_SIZE);
+    CsvTable sequential = new CsvTable(file, null, UnificationOptions.THROW);
+    CsvTable parallel = new CsvTable(file, null, UnificationOptions.THROW,
+        IngestionOptions.PARALLEL);
+    assertEquals(15000, parallel.size());
+    assertEquals(sequential, parallel);
+    for (String key : sequential.getKeys())
+      assertEquals(key, sequential.get(key).getLineNo(), parallel.get(key).getLineNo());
+    assertEquals("notes for 14997,\nspanning\nthree lines",
+        parallel.get("14997").get("notes").getValue());
+  }
+
+  public void testChunksParsedAgainInternedOnce() throws Exception {
+    // Nearly every line end is within quotes, so nearly every chunk's guessed start is wrong
+    File file = new File("target", "parallelQuoted.csv");
+    PrintStream out = new PrintStream(new FileOutputStream(file));
+    out.print("Id,notes,village,\n");
+    for (int i = 1; i <= 4000; i++) {
+      out.print(i + ",\"");
+      for (int line = 0; line < 20; line++)
+        out.print("line " + line + "\n");
+      out.print("\"," + (i % 2 == 0 ? "Southstoke" : "Combe Down") + ",\n");
+    }
+    out.close();
+    assertTrue(file.length() > 4 * CsvParallelLoader.MINIMUM_CHUNK_SIZE);
+    CsvTable sequential = new CsvTable(file, null, UnificationOptions.THROW);
+    CsvTable parallel = new CsvTable(file, null, UnificationOptions.THROW, IngestionOptions.PARALLEL);
+    assertEquals(sequential, parallel);
+    assertEquals(3998, parallel.getDictionary("village").getSharedCount());
+    assertEquals(sequential.getDictionarySavedBytes(), parallel.getDictionarySavedBytes());
+    assertSame(parallel.get("2").get("village").getValue(), parallel.get("4000").get("village").getValue());
+  }
+
+  public void testDuplicateKey() throws Exception {
+    File file = writeLargeFile("parallelDuplicate.csv", 12000, "17");
+    String expected = null;
+    try {
+      new CsvTable(file, null, UnificationOptions.THROW);
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      expected = e.getMessage();
+    }
+    try {
+      new CsvTable(file, null, UnificationOptions.THROW, IngestionOptions.PARALLEL);
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      assertEquals(expected, e.getMessage());
+    }
+  }
+
+  public void testParseException() {
+    try {
+      new CsvTable(new File("src/test/resources/blankLineAtEndOfFile.csv"), null,
+          UnificationOptions.LOG, IngestionOptions.PARALLEL);
+      fail("Should have bombed");
+    } catch (CsvParseException e) {
+      assertEquals("Problem with data field no. 1 of 3 in src/test/resources/blankLineAtEndOfFile.csv"
+          + " line 4 (Check last line of file)", e.getMessage());
+    }
+  }
+
+  public void testSmallFiles() throws Exception {
+    String[][] filesAndKeys = { { "sheet1.csv", null }, { "multilineField.csv", null },
+        { "eg_sheet2.csv", "ID" } };
+    for (String[] fileAndKey : filesAndKeys) {
+      File file = new File("src/test/resources", fileAndKey[0]);
+      assertEquals(new CsvTable(file, fileAndKey[1], UnificationOptions.LOG),
+          new CsvTable(file, fileAndKey[1], UnificationOptions.LOG, IngestionOptions.PARALLEL));
+    }
+  }
+
+  public void testNextLineStart() throws Exception {
+    File file = new File("target", "lineStarts.csv");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("ab\r\ncd\nef\rgh".getBytes("US-ASCII"));
+    out.close();
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    FileChannel channel = randomAccessFile.getChannel();
+    assertEquals(4, CsvParallelLoader.nextLineStart(channel, 1));
+    assertEquals(4, CsvParallelLoader.nextLineStart(channel, 3));
+    assertEquals(4, CsvParallelLoader.nextLineStart(channel, 4));
+    assertEquals(7, CsvParallelLoader.nextLineStart(channel, 5));
+    assertEquals(10, CsvParallelLoader.nextLineStart(channel, 8));
+    assertEquals(12, CsvParallelLoader.nextLineStart(channel, 11));
+    randomAccessFile.close();
+  }
+}
@@ -0,0 +1,161 @@
+package net.pizey.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CsvParallelUnifierTest extends TestCase {
+
+  public CsvParallelUnifierTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  /** Enough candidate records for several partitions, but few more. */
+  private static final int PARTITIONS = 4;
+  private static final int ROWS = CsvParallelUnifier.MINIMUM_PARTITION_SIZE * PARTITIONS + 50;
+
+  /**
+   * @return the key of the row at the index, the keys of a file of the number of rows being spread over 0 to rows - 1
+   */
+  private static String keyAt(int i, int rows) {
+    return String.valueOf((i * 7919) % rows);
+  }
+
+  private static File write(String name, String header, int rows, int step, String... conflictsAt)
+      throws IOException {
+    File file = File.createTempFile(name, ".csv");
+    PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+    out.print(header);
+    List<String> conflicting = Arrays.asList(conflictsAt);
+    for (int i = 0; i < rows; i += step) {
+      String key = keyAt(i, rows);
+      if (header.contains("village"))
+        out.print(key + "," + (conflicting.contains(key) ? "clash" : "name" + key) + ",village" + i % 7 + ",\n");
+      else
+        out.print(key + "," + (i % 5 == 0 ? "" : "name" + key) + ",note" + i % 3 + ",\n");
+    }
+    out.close();
+    return file;
+  }
+
+  private static CsvTable load(File file, UnificationOptions option, StorageOptions storage) {
+    return new CsvTable(file, null, option, IngestionOptions.READER, null, null, storage);
+  }
+
+  /**
+   * The unified table, or the failure, and anything logged.
+   */
+  private static final class Outcome {
+    private CsvTable unified;
+    private String failure;
+    private String logged;
+  }
+
+  private static Outcome unify(CsvTable current, CsvTable candidate, boolean unifyWithEmpty, boolean parallel) {
+    Outcome outcome = new Outcome();
+    ByteArrayOutputStream logged = new ByteArrayOutputStream();
+    PrintStream err = System.err;
+    System.setErr(new PrintStream(logged));
+    try {
+      outcome.unified = parallel ? current.unifyInParallel(candidate, unifyWithEmpty)
+          : current.unify(candidate, unifyWithEmpty);
+    } catch (CsvException e) {
+      outcome.failure = e.getClass().getName() + ": " + e.getMessage();
+    } finally {
+      System.setErr(err);
+    }
+    outcome.logged = logged.toString();
+    return outcome;
+  }
+
+  private void assertSameAsSequential(File current, File candidate, UnificationOptions option) {
+    for (StorageOptions storage : new StorageOptions[] { StorageOptions.EAGER, StorageOptions.LAZY,
+        StorageOptions.COLUMNAR, StorageOptions.ARENA }) {
+      CsvTable base = load(current, option, storage);
+      CsvTable candidates = load(candidate, option, storage);
+      CsvTable before = new CsvTable(base);
+      for (boolean unifyWithEmpty : new boolean[] { true, false }) {
+        String message = storage + " " + unifyWithEmpty;
+        Outcome expected = unify(base, candidates, unifyWithEmpty, false);
+        Outcome actual = unify(base, candidates, unifyWithEmpty, true);
+        assertEquals(message, expected.logged, actual.logged);
+        assertEquals(message, expected.failure, actual.failure);
+        assertEquals(message, expected.unified, actual.unified);
+        assertEquals(message, before, base);
+      }
+    }
+  }
+
+  public void testSameAsSequential() throws Exception {
+    File current = write("current", "Id,name,notes,\n", ROWS + 50, 1);
+    File subset = write("subset", "Id,name,village,\n", ROWS, 1);
+    File extra = write("extra", "Id,name,village,\n", ROWS + 100, 1);
+    try {
+      assertSameAsSequential(current, subset, UnificationOptions.THROW);
+      assertSameAsSequential(current, extra, UnificationOptions.THROW);
+      assertSameAsSequential(current, extra, UnificationOptions.LOG);
+      assertSameAsSequential(current, extra, UnificationOptions.DEFAULT);
+    } finally {
+      current.delete();
+      subset.delete();
+      extra.delete();
+    }
+  }
+
+  /**
+   * A conflict in a later partition, but earlier in the candidate, is the one reported, as a sequential unify would.
+   */
+  public void testFirstConflictReported() throws Exception {
+    String early = null;
+    String late = null;
+    for (int i = 0; late == null; i++) {
+      int partition = CsvParallelUnifier.partition(keyAt(i, ROWS), PARTITIONS);
+      if (early == null && partition == PARTITIONS - 1)
+        early = keyAt(i, ROWS);
+      else if (early != null && partition == 0)
+        late = keyAt(i, ROWS);
+    }
+    File current = write("current", "Id,name,notes,\n", ROWS, 1);
+    File conflicting = write("conflicting", "Id,name,village,\n", ROWS, 1, early, late);
+    try {
+      CsvTable base = load(current, UnificationOptions.THROW, StorageOptions.EAGER);
+      CsvTable candidate = load(conflicting, UnificationOptions.THROW, StorageOptions.EAGER);
+      assertTrue(candidate.get(early).getLineNo() < candidate.get(late).getLineNo());
+      try {
+        base.unifyInParallel(candidate, true);
+        fail("Should have bombed");
+      } catch (CsvRecordUnificationException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Table " + candidate.getName() + " line "
+            + candidate.get(early).getLineNo() + " "));
+      }
+      assertSameAsSequential(current, conflicting, UnificationOptions.DEFAULT);
+    } finally {
+      current.delete();
+      conflicting.delete();
+    }
+  }
+
+  public void testSmallTables() {
+    CsvTable sheet1 = new CsvTable("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT);
+    CsvTable sheet3 = new CsvTable("src/test/resources/sheet3.csv", UnificationOptions.DEFAULT);
+    assertEquals(sheet1.unify(sheet3, true), sheet1.unifyInParallel(sheet3, true));
+    CsvTable empty = new CsvTable(sheet1);
+    empty.clear();
+    assertEquals(sheet1, sheet1.unifyInParallel(empty, true));
+  }
+}
@@ -0,0 +1,137 @@
+package net.pizey.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class CsvPrefetchingInputStreamTest extends TestCase {
+
+  public CsvPrefetchingInputStreamTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+      bytes[i] = (byte) (i * 7);
+    return bytes;
+  }
+
+  public void testRead() throws Exception {
+    byte[] expected = bytes(10000);
+    InputStream in = new CsvPrefetchingInputStream(new ByteArrayInputStream(expected), "test", 64, 2);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(expected[0] & 0xff, in.read());
+    out.write(expected[0]);
+    byte[] buffer = new byte[100];
+    assertEquals(0, in.read(buffer, 0, 0));
+    int read;
+    while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+      assertTrue(read <= 64);
+      out.write(buffer, 0, read);
+    }
+    assertEquals(-1, in.read());
+    assertEquals(0, in.available());
+    in.close();
+    in.close();
+    assertTrue(Arrays.equals(expected, out.toByteArray()));
+  }
+
+  public void testEmpty() throws Exception {
+    InputStream in = new CsvPrefetchingInputStream(new ByteArrayInputStream(new byte[0]), "empty");
+    assertEquals(-1, in.read());
+    in.close();
+  }
+
+  public void testFailure() throws Exception {
+    InputStream failing = new InputStream() {
+      private int count = 0;
+
+      @Override
+      public int read() throws IOException {
+        if (count++ == 100)
+          throw new IOException("Disk on fire");
+        return 'x';
+      }
+    };
+    InputStream in = new CsvPrefetchingInputStream(failing, "failing", 10, 2);
+    int count = 0;
+    try {
+      while (in.read() != -1)
+        count++;
+      fail("Should have bombed");
+    } catch (IOException e) {
+      assertEquals("Disk on fire", e.getMessage());
+    }
+    assertEquals(100, count);
+    in.close();
+  }
+
+  public void testCloseEarly() throws Exception {
+    InputStream in = new CsvPrefetchingInputStream(new ByteArrayInputStream(bytes(10000)), "early", 16, 2);
+    in.read();
+    in.close();
+    try {
+      in.read(new byte[100], 0, 100);
+      fail("Should have bombed");
+    } catch (IOException e) {
+      assertEquals("Stream closed", e.getMessage());
+    }
+  }
+
+  public void testCsvTable() throws Exception {
+    File file = CsvParallelLoaderTest.writeLargeFile("prefetch.csv", 3000, null);
+    CsvTable prefetched = new CsvTable(file, null, UnificationOptions.THROW, IngestionOptions.PREFETCH);
+    assertEquals(IngestionOptions.PREFETCH, prefetched.getIngestionOption());
+    assertEquals(new CsvTable(file, null, UnificationOptions.THROW), prefetched);
+  }
+
+  /**
+   * @return a gzipped copy of the file, in target
+   */
+  static File gzip(File file) throws Exception {
+    File gzipped = new File("target", file.getName() + ".gz");
+    InputStream in = new FileInputStream(file);
+    OutputStream out = new GZIPOutputStream(new FileOutputStream(gzipped));
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) >= 0)
+      out.write(buffer, 0, read);
+    in.close();
+    out.close();
+    return gzipped;
+  }
+
+  public void testGzippedCsvTable() throws Exception {
+    File file = CsvParallelLoaderTest.writeLargeFile("gzipped.csv", 3000, null);
+    File gzipped = gzip(file);
+    assertTrue(CsvParsers.isGzipped(gzipped));
+    assertFalse(CsvParsers.isGzipped(file));
+    CsvTable plain = new CsvTable(file, null, UnificationOptions.THROW);
+    for (IngestionOptions ingestionOption : IngestionOptions.values())
+      assertEquals(plain, new CsvTable(gzipped, null, UnificationOptions.THROW, ingestionOption));
+    CsvReader reader = new CsvReader(gzipped, IngestionOptions.MAPPED);
+    int count = 0;
+    for (CsvRow row : reader)
+      assertEquals(String.valueOf(++count), row.get("Id"));
+    reader.close();
+    assertEquals(3000, count);
+  }
+}
@@ -0,0 +1,59 @@
+package net.pizey.csv;
+
+import junit.framework.TestCase;
+
+public class CsvRawFieldsTest extends TestCase {
+
+  public CsvRawFieldsTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testAdd() {
+    CsvRawFields fields = new CsvRawFields();
+    fields.add("Southstoke");
+    fields.add(new char[] { 'x', 'C', 'I', 'x' }, 1, 2);
+    fields.add(new char[] { 'Z', 'o', 'ë' }, 0, 3);
+    fields.add(new byte[] { 'R' }, 0, 1);
+    fields.add("");
+    assertEquals(5, fields.size());
+    assertEquals("Southstoke", fields.get(0));
+    assertEquals("CI", fields.get(1));
+    assertEquals("Zoë", fields.get(2));
+    assertEquals("R", fields.get(3));
+    assertEquals("", fields.get(4));
+    assertEquals(10 + 2 + 4 + 1, fields.getByteCount());
+    assertEquals("Southstoke,CI,Zoë,R,", fields.toString());
+    try {
+      fields.get(5);
+      fail("Should have bombed");
+    } catch (IndexOutOfBoundsException e) {
+      e = null;
+    }
+  }
+
+  public void testCopyAndClear() {
+    CsvRawFields fields = new CsvRawFields();
+    StringBuffer longValue = new StringBuffer();
+    for (int i = 0; i < 100; i++) {
+      fields.add(String.valueOf(i));
+      longValue.append("0123456789");
+    }
+    fields.add(longValue.toString());
+    CsvRawFields copy = fields.copy();
+    fields.clear();
+    assertEquals(0, fields.size());
+    fields.add("new");
+    assertEquals("new", fields.get(0));
+    assertEquals(101, copy.size());
+    assertEquals("99", copy.get(99));
+    assertEquals(longValue.toString(), copy.get(100));
+  }
+}
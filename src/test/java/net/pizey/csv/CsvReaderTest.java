@@ -0,0 +1,117 @@
+package net.pizey.csv;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import junit.framework.TestCase;
+
+public class CsvReaderTest extends TestCase {
+
+  public CsvReaderTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testRead() throws Exception {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    CsvTable table = new CsvTable(file, "ID");
+    CsvReader reader = new CsvReader(file);
+    assertEquals(12, reader.getColumnNames().size());
+    assertEquals("PCRID", reader.getColumnNames().get(0));
+    int count = 0;
+    CsvRow first = null;
+    for (CsvRow row : reader) {
+      if (first == null)
+        first = row;
+      assertSame(first, row);
+      CsvRecord record = table.get(row.get("ID"));
+      assertEquals(record.getLineNo(), row.getLineNo());
+      for (String columnName : reader.getColumnNames())
+        assertEquals(record.get(columnName).getValue(), row.get(columnName));
+      count++;
+    }
+    reader.close();
+    assertEquals(table.size(), count);
+    assertFalse(reader.hasNext());
+    try {
+      reader.next();
+      fail("Should have bombed");
+    } catch (NoSuchElementException e) {
+      e = null;
+    }
+  }
+
+  public void testHasNextIsIdempotent() throws Exception {
+    CsvReader reader = new CsvReader(new CsvFileParser(new StringReader("a,b\r\n1,\"x\r\ny\"\r\n2,z")),
+        "test");
+    Iterator<CsvRow> it = reader.iterator();
+    assertTrue(it.hasNext());
+    assertTrue(it.hasNext());
+    CsvRow row = it.next();
+    assertEquals("1,x\ny", row.toString());
+    assertEquals(3, row.getLineNo());
+    assertTrue(it.hasNext());
+    assertEquals("2", reader.next().get("a"));
+    assertEquals("z", row.get("b"));
+    assertFalse(it.hasNext());
+    try {
+      it.remove();
+      fail("Should have bombed");
+    } catch (UnsupportedOperationException e) {
+      e = null;
+    }
+    reader.close();
+  }
+
+  public void testEmpty() throws Exception {
+    CsvReader reader = new CsvReader(new CsvFileParser(new StringReader("")), "empty");
+    assertEquals(0, reader.getColumnNames().size());
+    assertFalse(reader.hasNext());
+    reader.close();
+  }
+
+  public void testMapped() throws Exception {
+    File file = CsvParallelLoaderTest.writeLargeFile("reader.csv", 3000, null);
+    CsvReader reader = new CsvReader(file, IngestionOptions.MAPPED);
+    int count = 0;
+    for (CsvRow row : reader) {
+      count++;
+      assertEquals(String.valueOf(count), row.get("Id"));
+    }
+    reader.close();
+    assertEquals(3000, count);
+  }
+
+  public void testParseException() throws Exception {
+    CsvReader reader = new CsvReader(new File("src/test/resources/unclosedQuote.csv"));
+    try {
+      reader.next();
+      fail("Should have bombed");
+    } catch (CsvParseException e) {
+      assertEquals("Failed to read data field no. 3 in src/test/resources/unclosedQuote.csv line 3",
+          e.getMessage());
+    }
+    reader.close();
+  }
+
+  public void testTooFewFields() throws Exception {
+    CsvReader reader = new CsvReader(new CsvFileParser(new StringReader("a,b,c\n1,2\n")), "short");
+    try {
+      reader.next();
+      fail("Should have bombed");
+    } catch (CsvParseException e) {
+      assertEquals("Problem with data field no. 3 of 3 in short line 2 (Check last line of file)",
+          e.getMessage());
+    }
+    reader.close();
+  }
+}
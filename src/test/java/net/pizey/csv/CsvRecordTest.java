@@ -1,6 +1,8 @@
 package net.pizey.csv;
 
 import java.lang.reflect.Method;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.Map.Entry;
 
@@ -56,7 +58,33 @@ public class CsvRecordTest extends TestCase {
    * Test method for {@link net.pizey.csv.CsvRecord#iterator()}.
    */
   public void testIterator() {
-
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvRecord r = sheet.get("2");
+    StringBuffer values = new StringBuffer();
+    for (CsvField field : r)
+      values.append(field.getValue());
+    assertEquals("22f12f2", values.toString());
+
+    Iterator<CsvField> it = r.iterator();
+    it.next();
+    sheet.addColumn(new CsvColumn("field3", false));
+    try {
+      it.next();
+      fail("Should have bombed");
+    } catch (ConcurrentModificationException e) {
+      e = null;
+    }
+    Iterator<CsvField> fields = r.values().iterator();
+    fields.next();
+    fields.remove();
+    fields.next();
+    r.remove("field3");
+    try {
+      fields.next();
+      fail("Should have bombed");
+    } catch (ConcurrentModificationException e) {
+      e = null;
+    }
   }
 
   /**
@@ -217,6 +245,21 @@ public class CsvRecordTest extends TestCase {
     }
   }
 
+  /**
+   * Test method for {@link net.pizey.csv.CsvRecord#clone(net.pizey.csv.CsvTable)}.
+   */
+  public void testCloneSharesFields() {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    CsvRecord r = sheet.get("2");
+    CsvRecord copy = r.clone(sheet);
+    assertEquals(r, copy);
+    copy.put("field1", new CsvField(sheet.getColumn("field1"), "changed"));
+    assertEquals("2f1", r.get("field1").getValue());
+    r.remove("field2");
+    assertEquals("2f2", copy.get("field2").getValue());
+    assertNull(r.get("field2"));
+  }
+
   /**
    * Test method for {@link net.pizey.csv.CsvRecord#putAll(java.util.Map)}.
    */
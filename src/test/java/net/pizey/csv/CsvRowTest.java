@@ -0,0 +1,55 @@
+package net.pizey.csv;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CsvRowTest extends TestCase {
+
+  public CsvRowTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testGet() {
+    CsvRow row = new CsvRow(Arrays.asList(new String[] { "Id", "Village", "C59" }));
+    assertEquals(3, row.size());
+    assertEquals("[Id, Village, C59]", row.getColumnNames().toString());
+    row.set(0, "1");
+    row.set(1, "Wellow");
+    row.setLineNo(7);
+    assertEquals("1", row.get(0));
+    assertEquals("Wellow", row.get("Village"));
+    assertNull(row.get("C59"));
+    assertNull(row.get("Hamlet"));
+    assertEquals(2, row.indexOf("C59"));
+    assertEquals(-1, row.indexOf("Hamlet"));
+    assertEquals(7, row.getLineNo());
+    assertEquals("1,Wellow,", row.toString());
+  }
+
+  public void testColumnValueFilter() {
+    CsvRow row = new CsvRow(Arrays.asList(new String[] { "Id", "Village" }));
+    CsvRowFilter filter = new CsvColumnValueFilter("Village", "Wellow");
+    assertEquals("[Village]", filter.getColumnNames().toString());
+    assertEquals("Village == Wellow", filter.toString());
+    assertFalse(filter.accept(row));
+    row.set(1, "Wellow");
+    assertTrue(filter.accept(row));
+    row.set(1, "Southstoke");
+    assertFalse(filter.accept(row));
+    try {
+      new CsvColumnValueFilter("Village", null);
+      fail("Should have bombed");
+    } catch (NullPointerException e) {
+      e = null;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package net.pizey.csv;
+
+import junit.framework.TestCase;
+
+public class CsvSchemaTest extends TestCase {
+
+  public CsvSchemaTest(String name) {
+    super(name);
+  }
+
+  protected void setUp() throws Exception {
+    super.setUp();
+  }
+
+  protected void tearDown() throws Exception {
+    super.tearDown();
+  }
+
+  public void testWithColumn() {
+    CsvSchema schema = CsvSchema.EMPTY.withColumn(new CsvColumn("Id", true))
+        .withColumn(new CsvColumn("Village", false));
+    assertEquals(0, CsvSchema.EMPTY.size());
+    assertEquals(2, schema.size());
+    assertEquals(0, schema.ordinalOf("Id"));
+    assertEquals(1, schema.ordinalOf("Village"));
+    assertEquals(-1, schema.ordinalOf("County"));
+    assertEquals("Id(PK),Village", schema.toString());
+
+    CsvColumn replacement = new CsvColumn("Village", true);
+    CsvSchema replaced = schema.withColumn(replacement);
+    assertEquals(2, replaced.size());
+    assertSame(replacement, replaced.getColumn(1));
+    assertEquals("Id(PK),Village", schema.toString());
+  }
+
+  public void testWithFirst() {
+    CsvSchema schema = CsvSchema.EMPTY.withColumn(new CsvColumn("Id", true))
+        .withColumn(new CsvColumn("Village", false))
+        .withColumn(new CsvColumn("County", false));
+    CsvSchema reordered = schema.withFirst("County");
+    assertEquals("County,Id(PK),Village", reordered.toString());
+    assertEquals(2, reordered.getOrdinal(0));
+    assertEquals(0, reordered.getOrdinal(1));
+    assertEquals(2, reordered.ordinalOf("County"));
+    assertEquals("Id(PK),Village,County", schema.toString());
+    try {
+      schema.withFirst("Parish");
+      fail("Should have bombed");
+    } catch (CsvColumnNotFoundException e) {
+      e = null;
+    }
+  }
+
+  public void testTableSchema() {
+    CsvTable sheet1 = new CsvTable("src/test/resources/sheet1.csv");
+    CsvSchema schema = sheet1.getSchema();
+    assertEquals("Id(PK),field1", schema.toString());
+    CsvRecord record = sheet1.get("2");
+    assertEquals("2f1", record.fieldAt(schema.ordinalOf("field1")).getValue());
+
+    sheet1.addColumn(new CsvColumn("field2", false));
+    assertNotSame(schema, sheet1.getSchema());
+    assertEquals(2, sheet1.getSchema().ordinalOf("field2"));
+    assertEquals("", record.fieldAt(2).getValue());
+
+    sheet1.makeFirstAndPrimary("field1");
+    assertEquals("field1(PK),Id,field2", sheet1.getSchema().toString());
+    assertEquals(1, sheet1.getSchema().ordinalOf("field1"));
+    assertEquals("2f1,2,", sheet1.get("2f1").toString());
+  }
+}
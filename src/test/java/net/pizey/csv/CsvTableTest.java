@@ -1,9 +1,22 @@
 package net.pizey.csv;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.StringReader;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 import java.util.Map.Entry;
 
 import junit.framework.TestCase;
@@ -17,6 +30,8 @@ public class CsvTableTest extends TestCase {
   public void testRemoveExtension() {
     assertEquals("sheet1", CsvTable.removeExtension("sheet1.csv"));
     assertEquals("sheet1", CsvTable.removeExtension("sheet1"));
+    assertEquals("sheet1", CsvTable.removeExtension("sheet1.csv.gz"));
+    assertEquals("sheet1", CsvTable.removeExtension("sheet1.gz"));
   }
 
   public void testConstruct() throws Exception {
@@ -41,6 +56,125 @@ public class CsvTableTest extends TestCase {
     reader.close();
   }
 
+  public void testConstructKeepingColumns() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    List<String> kept = Arrays.asList(new String[] { "C59", "Village" });
+    for (IngestionOptions ingestionOption : IngestionOptions.values()) {
+      CsvTable sheet = new CsvTable(file, "ID", UnificationOptions.LOG, ingestionOption, kept);
+      assertEquals("[ID(PK), Village, C59]", sheet.getColumnsInOrder().toString());
+      assertEquals("164,Southstoke,R", sheet.get("164").toString());
+      assertEquals(74, sheet.size());
+    }
+    CsvTable firstIsKey = new CsvTable(new File("src/test/resources/sheet2.csv"), null,
+        UnificationOptions.LOG, IngestionOptions.READER, Arrays.asList(new String[] { "field2" }));
+    assertEquals("Id,field2,\n1,f2,\n2,2f2,\n", firstIsKey.toString());
+    try {
+      new CsvTable(file, "ID", UnificationOptions.LOG, IngestionOptions.READER,
+          Arrays.asList(new String[] { "Hamlet" }));
+      fail("Should have bombed");
+    } catch (CsvColumnNotFoundException e) {
+      assertEquals("Column Hamlet not found in src/test/resources/eg_sheet1.csv", e.getMessage());
+    }
+  }
+
+  public void testConstructWithFilter() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    CsvRowFilter southstoke = new CsvColumnValueFilter("Village", "Southstoke");
+    for (IngestionOptions ingestionOption : IngestionOptions.values()) {
+      CsvTable sheet = new CsvTable(file, "ID", UnificationOptions.LOG, ingestionOption, null,
+          southstoke);
+      assertEquals(17, sheet.size());
+      for (CsvRecord record : sheet)
+        assertEquals("Southstoke", record.get("Village").getValue());
+      assertEquals(2, sheet.get("164").getLineNo());
+      assertNull(sheet.get("1"));
+    }
+    // The filtered column need not be kept
+    CsvTable sheet = new CsvTable(file, "ID", UnificationOptions.LOG, IngestionOptions.READER,
+        Arrays.asList(new String[] { "C59" }), new CsvColumnValueFilter("C50/51", "M"));
+    assertEquals("ID,C59,\n319,R,\n477,R,\n629,R,\n742,R,\n", sheet.toString());
+    try {
+      new CsvTable(file, "ID", UnificationOptions.LOG, IngestionOptions.READER, null,
+          new CsvColumnValueFilter("Hamlet", "Southstoke"));
+      fail("Should have bombed");
+    } catch (CsvColumnNotFoundException e) {
+      e = null;
+    }
+  }
+
+  public void testDictionary() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    for (IngestionOptions ingestionOption : IngestionOptions.values()) {
+      CsvTable sheet = new CsvTable(file, "ID", UnificationOptions.LOG, ingestionOption);
+      assertSame(sheet.get("164").get("Village").getValue(), sheet.get("278").get("Village").getValue());
+      assertNull(sheet.getDictionary("ID"));
+      assertNull(sheet.getDictionary("Hamlet"));
+      CsvColumnDictionary villages = sheet.getDictionary("Village");
+      assertTrue(villages.isEnabled());
+      assertEquals(sheet.size() - villages.getDistinctCount(), villages.getSharedCount());
+      assertTrue(sheet.getDictionarySavedBytes() > villages.getSavedBytes());
+    }
+  }
+
+  public void testFailedLoadClosesParser() throws Exception {
+    File file = File.createTempFile("duplicated", ".csv");
+    FileWriter out = new FileWriter(file);
+    out.write("Id,name,\n1,one,\n1,again,\n");
+    // More than the prefetching reader's buffers hold, so it would wait for them to be read
+    for (int i = 2; i < 400000; i++)
+      out.write(i + ",name of row " + i + ",\n");
+    out.close();
+    try {
+      new CsvTable(file, null, UnificationOptions.LOG, IngestionOptions.PREFETCH, null, null, StorageOptions.EAGER);
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      e = null;
+    } finally {
+      file.delete();
+    }
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+      if (thread.getName().equals("CsvPrefetch " + file.getName())) {
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+      }
+  }
+
+  public void testLazyStorage() {
+    File file = new File("src/test/resources/eg_sheet1.csv");
+    CsvTable eager = new CsvTable(file, "ID", UnificationOptions.LOG);
+    for (IngestionOptions ingestionOption : IngestionOptions.values()) {
+      CsvTable lazy = new CsvTable(file, "ID", UnificationOptions.LOG, ingestionOption, null, null,
+          StorageOptions.LAZY);
+      assertEquals(StorageOptions.LAZY, lazy.getStorageOption());
+      CsvRecord record = lazy.get("164");
+      assertTrue(record.isLazy());
+      assertEquals("Southstoke", record.get("Village").getValue());
+      assertTrue(record.containsKey("C59"));
+      assertTrue(record.isLazy());
+      CsvTable copy = new CsvTable(lazy);
+      assertTrue(copy.get("164").isLazy());
+      assertEquals(eager.get("164").toString(), record.toString());
+      assertEquals(eager, lazy);
+      assertFalse(record.isLazy());
+      assertEquals(eager, copy);
+    }
+    // Filtered fields are decoded as they are read
+    CsvTable lazy = new CsvTable(file, "ID", UnificationOptions.LOG, IngestionOptions.READER, null,
+        new CsvColumnValueFilter("Village", "Southstoke"), StorageOptions.LAZY);
+    assertEquals(17, lazy.size());
+    assertEquals("CIRNI", lazy.get("164").get("DHFR-H-TYPE").getValue());
+  }
+
+  public void testLazyUnify() {
+    CsvTable sheet1 = new CsvTable(new File("src/test/resources/sheet1.csv"), null,
+        UnificationOptions.DEFAULT, IngestionOptions.READER, null, null, StorageOptions.LAZY);
+    CsvTable sheet2 = new CsvTable(new File("src/test/resources/sheet2.csv"), null,
+        UnificationOptions.DEFAULT, IngestionOptions.READER, null, null, StorageOptions.LAZY);
+    CsvTable expected = new CsvTable("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT)
+        .unify(new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.DEFAULT), true);
+    assertEquals(expected.toString(), sheet1.unify(sheet2, true).toString());
+  }
+
   public void testConstructFromInstance() {
     String sheet1Name = "src/test/resources/sheet1.csv";
 
@@ -61,6 +195,110 @@ public class CsvTableTest extends TestCase {
 
   }
 
+  public void testCopyIsIsolated() {
+    for (StorageOptions storageOption : StorageOptions.values()) {
+      CsvTable base = new CsvTable(new File("src/test/resources/sheet2.csv"), null, UnificationOptions.LOG,
+          IngestionOptions.READER, null, null, storageOption);
+      String before = base.toString();
+      CsvTable copy = new CsvTable(base);
+      base.get("1").put("field1", new CsvField(base.getColumn("field1"), "changed"));
+      assertEquals(storageOption.toString(), before, copy.toString());
+
+      CsvRecord held = base.get("2");
+      CsvTable again = new CsvTable(base);
+      String copied = again.toString();
+      held.put("field1", new CsvField(base.getColumn("field1"), "held"));
+      assertEquals(storageOption.toString(), copied, again.toString());
+      assertEquals("held", base.get("2").get("field1").getValue());
+
+      copy.get("2").remove("field2");
+      assertEquals("2f2", base.get("2").get("field2").getValue());
+      assertEquals("2f2", again.get("2").get("field2").getValue());
+    }
+  }
+
+  public void testColumnarCopy() throws Exception {
+    File file = File.createTempFile("columnar", ".csv");
+    FileWriter out = new FileWriter(file);
+    out.write("Id,name,\n");
+    for (int i = 0; i < 3000; i++)
+      out.write(i + ",n" + i + ",\n");
+    out.close();
+    try {
+      CsvTable eager = new CsvTable(file, null, UnificationOptions.LOG, IngestionOptions.READER, null, null,
+          StorageOptions.EAGER);
+      CsvTable base = new CsvTable(file, null, UnificationOptions.LOG, IngestionOptions.READER, null, null,
+          StorageOptions.COLUMNAR);
+      String before = base.toString();
+      CsvTable copy = new CsvTable(base);
+      copy.get("2500").put("name", new CsvField(copy.getColumn("name"), "changed"));
+      CsvRecord added = new CsvRecord(copy);
+      added.addField(new CsvField(copy.getPrimaryKeyColumn(), "3000"));
+      added.addField(new CsvField(copy.getColumn("name"), "n3000"));
+      copy.put("3000", added);
+      base.get("10").remove("name");
+      assertEquals("changed", copy.get("2500").get("name").getValue());
+      assertEquals("n2500", base.get("2500").get("name").getValue());
+      assertEquals("n10", copy.get("10").get("name").getValue());
+      assertNull(base.get("3000"));
+      assertEquals(3001, copy.size());
+      assertNull(base.get("10").get("name"));
+      assertEquals(before, eager.toString());
+      base.get("10").put("name", new CsvField(base.getColumn("name"), "n10"));
+      assertEquals(before, base.toString());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testCopyKeepsRecords() {
+    CsvTable base = new CsvTable("src/test/resources/sheet2.csv");
+    CsvRecord held = base.get("1");
+    CsvTable copy = new CsvTable(base);
+    assertSame(held, base.get("1"));
+    assertSame(copy.get("1"), copy.get("1"));
+    assertNotSame(held, copy.get("1"));
+    assertSame(copy, copy.get("1").getTable());
+    assertSame(held.get("field1"), copy.get("1").get("field1"));
+  }
+
+  public void testCopySharesUntouchedRecords() throws Exception {
+    File file = File.createTempFile("shared", ".csv");
+    FileWriter out = new FileWriter(file);
+    out.write("Id,name,\n");
+    for (int i = 0; i < 3000; i++)
+      out.write(i + ",n" + i + ",\n");
+    out.close();
+    try {
+      CsvTable base = new CsvTable(file, null, UnificationOptions.LOG, IngestionOptions.READER, null, null,
+          StorageOptions.EAGER);
+      CsvTable copy = new CsvTable(base);
+      CsvTable copyOfCopy = new CsvTable(copy);
+      CsvKeyIndex copyKeys = (CsvKeyIndex) copy.getKeys();
+      CsvKeyIndex copyOfCopyKeys = (CsvKeyIndex) copyOfCopy.getKeys();
+
+      copy.get("5").put("name", new CsvField(copy.getColumn("name"), "changed"));
+      assertNotSame(base.get("5"), copyKeys.peekRecord("5"));
+      assertSame(base.get("100"), copyKeys.peekRecord("100"));
+      assertSame(base.get("2610"), copyKeys.peekRecord("2610"));
+      assertEquals("n5", base.get("5").get("name").getValue());
+
+      base.get("2600").put("name", new CsvField(base.getColumn("name"), "changed"));
+      assertNotSame(base.get("2610"), copyKeys.peekRecord("2610"));
+      assertSame(base.get("100"), copyKeys.peekRecord("100"));
+      assertEquals("n2600", copy.get("2600").get("name").getValue());
+      assertEquals("n2600", copyOfCopy.get("2600").get("name").getValue());
+
+      assertSame(base.get("1500"), copyOfCopyKeys.peekRecord("1500"));
+      base.get("1500").remove("name");
+      assertEquals("n1500", copy.get("1500").get("name").getValue());
+      assertEquals("n1500", copyOfCopy.get("1500").get("name").getValue());
+      assertSame(copyOfCopy, copyOfCopy.get("1500").getTable());
+    } finally {
+      file.delete();
+    }
+  }
+
   public void testMakeFirst() {
     CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv");
 
@@ -77,6 +315,47 @@ public class CsvTableTest extends TestCase {
 
   }
 
+  public void testAddColumn() {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv");
+    CsvRecord r = sheet.get("2");
+    sheet.addColumn(new CsvColumn("field3", false));
+    assertEquals("Id,field1,field2,field3,\n1,f1,f2,,\n2,2f1,2f2,,\n", sheet.toString());
+    assertTrue(r.containsKey("field3"));
+    assertEquals(4, r.size());
+    assertEquals("", r.get("field3").getValue());
+    r.get("field3").setValue("2f3");
+    assertEquals("2f3", sheet.get("2").get("field3").getValue());
+    assertEquals("", sheet.get("1").remove("field3").getValue());
+    assertFalse(sheet.get("1").containsKey("field3"));
+    assertNull(sheet.get("1").get("field3"));
+    assertEquals(3, sheet.get("1").size());
+
+    CsvRecord added = new CsvRecord(sheet);
+    added.addField(new CsvField(sheet.getPrimaryKeyColumn(), "3"));
+    assertFalse(added.containsKey("field3"));
+    sheet.add(added);
+    assertEquals("3,,,", sheet.get("3").toString());
+
+    CsvTable lazy = new CsvTable(new File("src/test/resources/sheet2.csv"), null,
+        UnificationOptions.LOG, IngestionOptions.READER, null, null, StorageOptions.LAZY);
+    lazy.addColumn(new CsvColumn("field3", false));
+    assertEquals(sheet.get("2").size(), lazy.get("2").size());
+    assertEquals("2,2f1,2f2,", lazy.get("2").toString());
+  }
+
+  public void testMakeFirstDuplicate() {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv");
+    sheet.addColumn(new CsvColumn("field3", false));
+    try {
+      sheet.makeFirstAndPrimary("field3");
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      assertEquals("Line 3: Key  already exists", e.getMessage());
+    }
+    assertEquals("Id(PK)", sheet.getColumn("Id").toString());
+    assertEquals("Id,field1,field2,field3,\n1,f1,f2,,\n2,2f1,2f2,,\n", sheet.toString());
+  }
+
   public void testFailToUnifyMutated() {
     CsvTable sheet1 = new CsvTable("src/test/resources/sheet2.csv",
         UnificationOptions.LOG);
@@ -164,6 +443,150 @@ public class CsvTableTest extends TestCase {
 
   }
 
+  public void testUnifyList() {
+    String[] names = { "src/test/resources/sheet2.csv", "src/test/resources/sheet1.csv",
+        "src/test/resources/sheet3.csv", "src/test/resources/sheet2a.csv" };
+    for (UnificationOptions option : UnificationOptions.values()) {
+      for (boolean unifyWithEmpty : new boolean[] { true, false }) {
+        CsvTable base = new CsvTable(names[0], option);
+        String before = base.toString();
+        ArrayList<CsvTable> candidates = new ArrayList<CsvTable>();
+        for (int i = 1; i < names.length; i++)
+          candidates.add(new CsvTable(names[i], option));
+        String folded;
+        try {
+          CsvTable current = base;
+          for (CsvTable candidate : candidates)
+            current = current.unify(candidate, unifyWithEmpty);
+          folded = current.toString();
+        } catch (CsvException e) {
+          folded = e.getMessage();
+        }
+        String unified;
+        try {
+          unified = base.unify(candidates, unifyWithEmpty).toString();
+        } catch (CsvException e) {
+          unified = e.getMessage();
+        }
+        assertEquals(option + " " + unifyWithEmpty, folded, unified);
+        assertEquals(before, base.toString());
+      }
+    }
+    CsvTable sheet2 = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    assertEquals(sheet2.toString(), sheet2.unify(new ArrayList<CsvTable>(), true).toString());
+  }
+
+  public void testUnifyStreamed() throws Exception {
+    String[][] pairs = { { "sheet1", "sheet3" }, { "sheet2", "sheet2a" }, { "sheet2", "mutatedCopyOfSheet2" },
+        { "sheet3", "sheet1" }, { "sheet2WithBlanks", "sheet2" } };
+    for (UnificationOptions option : UnificationOptions.values()) {
+      for (boolean unifyWithEmpty : new boolean[] { true, false }) {
+        for (String[] pair : pairs) {
+          CsvTable base = new CsvTable("src/test/resources/" + pair[0] + ".csv", option);
+          File candidate = new File("src/test/resources/" + pair[1] + ".csv");
+          String expected;
+          try {
+            expected = base.unify(new CsvTable(candidate, null, option), unifyWithEmpty).toString();
+          } catch (CsvException e) {
+            expected = e.getMessage();
+          }
+          String streamed;
+          try {
+            streamed = base.unify(candidate, null, unifyWithEmpty).toString();
+          } catch (CsvException e) {
+            streamed = e.getMessage();
+          }
+          assertEquals(option + " " + unifyWithEmpty + " " + pair[1], expected, streamed);
+        }
+      }
+    }
+    CsvTable eg1 = new CsvTable("src/test/resources/eg_sheet1.csv", "ID", UnificationOptions.DEFAULT);
+    assertEquals(eg1.unify(new CsvTable("src/test/resources/eg_sheet2.csv", "ID"), true).toString(),
+        eg1.unify(new File("src/test/resources/eg_sheet2.csv"), "ID", true).toString());
+  }
+
+  public void testUnifyStreamedFromParser() throws Exception {
+    CsvTable sheet2 = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.DEFAULT);
+    CsvTable unified = sheet2.unify(new CsvFileParser(new StringReader("Id,field3,\n2,2f3,\n5,5f3,\n")), "extra.csv",
+        null, true);
+    assertEquals("Id,field1,field2,field3,\n1,f1,f2,,\n2,2f1,2f2,2f3,\n5,,,5f3,\n", unified.toString());
+    try {
+      sheet2.unify(new CsvFileParser(new StringReader("Id,field3,\n2,a,\n2,b,\n")), "twice.csv", null, true);
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      assertEquals("Line 3: Key 2 already exists", e.getMessage());
+    }
+    CsvTable logging = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.THROW);
+    try {
+      logging.unify(new CsvFileParser(new StringReader("Id,field1,\n9,x,\n")), "missing.csv", null, true);
+      fail("Should have bombed");
+    } catch (CsvRecordNotFoundException e) {
+      assertEquals("Record not found in sheet2 with key equal 9 from line 2 in file missing", e.getMessage());
+    }
+    try {
+      sheet2.unify(new File("nonexistent.csv"), null, true);
+      fail("Should have bombed");
+    } catch (CsvBugException e) {
+      assertTrue(e.getCause() instanceof FileNotFoundException);
+    }
+  }
+
+  public void testUnifyInPlace() {
+    String[][] pairs = { { "sheet1", "sheet3" }, { "sheet2", "sheet2a" }, { "sheet3", "sheet1" },
+        { "sheet2WithBlanks", "sheet2" } };
+    for (UnificationOptions option : UnificationOptions.values()) {
+      for (boolean unifyWithEmpty : new boolean[] { true, false }) {
+        for (String[] pair : pairs) {
+          CsvTable base = new CsvTable("src/test/resources/" + pair[0] + ".csv", option);
+          CsvTable candidate = new CsvTable("src/test/resources/" + pair[1] + ".csv", option);
+          String before = base.toString();
+          String expected;
+          try {
+            expected = base.unify(candidate, unifyWithEmpty).toString();
+          } catch (CsvException e) {
+            expected = e.getMessage();
+          }
+          assertEquals(before, base.toString());
+          String inPlace;
+          try {
+            base.unifyInPlace(candidate, unifyWithEmpty);
+            inPlace = base.toString();
+          } catch (CsvException e) {
+            inPlace = e.getMessage();
+            assertEquals(before, base.toString());
+          }
+          assertEquals(option + " " + unifyWithEmpty + " " + pair[1], expected, inPlace);
+        }
+      }
+    }
+  }
+
+  public void testUnifyInPlaceLeavesTableOnFailure() throws Exception {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2WithBlanks.csv", UnificationOptions.DEFAULT);
+    CsvTable original = new CsvTable("src/test/resources/sheet2WithBlanks.csv", UnificationOptions.DEFAULT);
+    String before = sheet.toString();
+    CsvTable copy = new CsvTable(sheet);
+    // Record 3 would be added and record 1 given field3 before record 2 conflicts
+    File file = File.createTempFile("candidate", ".csv");
+    FileWriter out = new FileWriter(file);
+    out.write("Id,field2,field3,\n3,a,b,\n1,f2,c,\n2,x,d,\n");
+    out.close();
+    try {
+      sheet.unifyInPlace(new CsvTable(file, null, UnificationOptions.DEFAULT), true);
+      fail("Should have bombed");
+    } catch (CsvRecordUnificationException e) {
+      e = null;
+    } finally {
+      file.delete();
+    }
+    assertEquals(before, sheet.toString());
+    assertEquals(original.getColumnsInOrder(), sheet.getColumnsInOrder());
+    sheet.unifyInPlace(new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.DEFAULT), true);
+    assertEquals(original.unify(new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.DEFAULT), true)
+        .toString(), sheet.toString());
+    assertEquals(before, copy.toString());
+  }
+
   public void testGetUnificationOption() {
     String sheetName = "src/test/resources/sheet1.csv";
 
@@ -195,6 +618,24 @@ public class CsvTableTest extends TestCase {
 
   }
 
+  public void testUnifySharesRecords() {
+    CsvTable holey = new CsvTable("src/test/resources/sheet2WithBlanks.csv",
+        UnificationOptions.DEFAULT);
+    CsvTable sheet2 = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.DEFAULT);
+    CsvTable filled = holey.unify(sheet2, true);
+    assertEquals("Id,field1,field2,\n1,,f2,\n2,,2f2,\n", holey.toString());
+    CsvKeyIndex filledKeys = (CsvKeyIndex) filled.getKeys();
+    assertSame(filled, filledKeys.getRecord("1").getTable());
+
+    CsvTable again = filled.unify(sheet2, true);
+    CsvKeyIndex againKeys = (CsvKeyIndex) again.getKeys();
+    assertSame(again, againKeys.getRecord("1").getTable());
+    assertSame(filled.get("1").get("field1"), again.get("1").get("field1"));
+    assertEquals(filled, again);
+    again.get("2").put("field1", new CsvField(again.getColumn("field1"), "changed"));
+    assertEquals("2f1", filled.get("2").get("field1").getValue());
+  }
+
   public void testUnifyDEFAULTNotUnifyWithEmpty() {
     CsvTable holey = new CsvTable("src/test/resources/sheet2WithBlanks.csv",
         UnificationOptions.DEFAULT);
@@ -360,6 +801,23 @@ public class CsvTableTest extends TestCase {
         .toString());
     sheet2.remove("4");
     assertEquals("Id,field1,field2,\n1,f1,f2,\n2,2f1,2f2,\n3,3f1,3f2,\n", sheet2.toString());
+    CsvRecord first = sheet2.remove("1");
+    assertEquals("[2, 3]", sheet2.getKeys().toString());
+    sheet2.add(first);
+    assertEquals("[2, 3, 1]", sheet2.getKeys().toString());
+    try {
+      sheet2.getKeys().clear();
+      fail("Should have bombed");
+    } catch (UnsupportedOperationException e) {
+      e = null;
+    }
+    assertEquals("[2, 3, 1]", sheet2.getKeys().toString());
+    try {
+      sheet2.add(first);
+      fail("Should have bombed");
+    } catch (CsvDuplicateKeyException e) {
+      e = null;
+    }
   }
 
   /**
@@ -372,6 +830,53 @@ public class CsvTableTest extends TestCase {
    * Test method for {@link net.pizey.csv.CsvTable#values()}.
    */
   public void testValues() {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    Collection<CsvRecord> values = sheet.values();
+    assertEquals(2, values.size());
+    assertTrue(values.contains(sheet.get("1")));
+    CsvTable sheet2a = new CsvTable("src/test/resources/sheet2a.csv", UnificationOptions.LOG);
+    sheet.putAll(sheet2a);
+    assertEquals(4, values.size());
+    assertEquals("[1,f1,f2, 2,2f1,2f2, 3,3f1,3f2, 4,4f1,4f2]", values.toString());
+    Iterator<CsvRecord> it = values.iterator();
+    it.next();
+    try {
+      it.remove();
+      fail("Should have bombed");
+    } catch (UnsupportedOperationException e) {
+      e = null;
+    }
+    sheet.remove("4");
+    try {
+      it.next();
+      fail("Should have bombed");
+    } catch (ConcurrentModificationException e) {
+      e = null;
+    }
+  }
+
+  public void testSpliterator() {
+    CsvTable sheet = new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.LOG);
+    sheet.putAll(new CsvTable("src/test/resources/sheet2a.csv", UnificationOptions.LOG));
+    Spliterator<CsvRecord> all = sheet.spliterator();
+    assertEquals(4, all.getExactSizeIfKnown());
+    Spliterator<CsvRecord> firstHalf = all.trySplit();
+    assertEquals(2, firstHalf.getExactSizeIfKnown());
+    assertEquals(2, all.getExactSizeIfKnown());
+    final StringBuffer keys = new StringBuffer();
+    Consumer<CsvRecord> appender = new Consumer<CsvRecord>() {
+      @Override
+      public void accept(CsvRecord record) {
+        keys.append(record.getPrimaryKey());
+      }
+    };
+    firstHalf.forEachRemaining(appender);
+    assertTrue(all.tryAdvance(appender));
+    assertEquals("123", keys.toString());
+
+    sheet.remove("2");
+    assertEquals(-1, sheet.spliterator().getExactSizeIfKnown());
+    assertEquals(3, StreamSupport.stream(sheet.values().spliterator(), true).count());
   }
 
   /**
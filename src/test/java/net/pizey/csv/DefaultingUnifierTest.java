@@ -1,5 +1,6 @@
 package net.pizey.csv;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 
 import junit.framework.TestCase;
@@ -30,5 +31,15 @@ public class DefaultingUnifierTest extends TestCase {
     }
     DefaultingUnifier.main(new String[] { "src/test/resources/sheet1.csv",
         "src/test/resources/sheet2.csv", "src/test/resources/sheet3.csv" });
+    DefaultingUnifier.main(new String[] { "src/test/resources/sheet1.csv",
+        CsvPrefetchingInputStreamTest.gzip(new File("src/test/resources/sheet2.csv")).getPath() });
+  }
+
+  public void testUnify() {
+    CsvTable expected = new CsvTable("src/test/resources/sheet1.csv", UnificationOptions.DEFAULT)
+        .unify(new CsvTable("src/test/resources/sheet2.csv", UnificationOptions.DEFAULT), true)
+        .unify(new CsvTable("src/test/resources/sheet3.csv", UnificationOptions.DEFAULT), true);
+    assertEquals(expected.toString(), DefaultingUnifier.unify("src/test/resources/sheet1.csv",
+        "src/test/resources/sheet2.csv", "src/test/resources/sheet3.csv").toString());
   }
 }